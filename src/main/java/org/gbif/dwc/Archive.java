@@ -15,21 +15,32 @@ package org.gbif.dwc;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import javax.annotation.Nonnull;
 import org.apache.commons.io.IOUtils;
 import org.gbif.dwc.record.Record;
 import org.gbif.dwc.record.StarRecord;
+import org.gbif.dwc.record.StarRecordImpl;
 import org.gbif.dwc.terms.Term;
 import org.gbif.utils.file.ClosableIterator;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,10 +63,30 @@ public class Archive implements Iterable<StarRecord> {
   private Set<ArchiveFile> extensions = new HashSet<>();
 
   private DwcLayout dwcLayout;
+  // the zip file data files are read from if they are not extracted into the archive location, or null
+  private ZipArchiveEntries zipEntries;
+  // if true data files are extracted from the zip file when they are first read
+  private boolean extractOnRead = false;
+  private final Map<String, Object> extractionLocks = new ConcurrentHashMap<>();
+
+  // sorts data files by id, or null to use a default sorter
+  private ExternalSorter sorter;
+
+  // heap available to hold extensions in memory to join them without sorting, 0 to always sort
+  private long hashJoinMemoryBudget = 0;
+
+  // if true extensions are indexed by id instead of sorting them, if they can't be held in memory
+  private boolean indexExtensions = false;
+
+  // holds the sorted data files instead of the archive location, or null to sort next to the data files
+  private SortedFileCache sortedFileCache;
 
   // Tracks whether the archive is sorted so star records can be iterated.
   private boolean normalizedAndSorted = false;
 
+  // Tracks whether the core and the extensions which can't be indexed are sorted, to join them with indexed extensions.
+  private boolean sortedForIndexedExtensions = false;
+
   public void addExtension(ArchiveFile extension) {
     extension.setArchive(this);
     extensions.add(extension);
@@ -97,6 +128,10 @@ public class Archive implements Iterable<StarRecord> {
       try {
         if (mf.exists()) {
           metadata = Files.readString(mf.toPath(), StandardCharsets.UTF_8);
+        } else if (zipEntryName(mf) != null) {
+          try (InputStream in = zipEntries.open(zipEntryName(mf))) {
+            metadata = IOUtils.toString(in, StandardCharsets.UTF_8);
+          }
         } else {
           // try as url
           URL url = new URL(metadataLocation);
@@ -165,25 +200,20 @@ public class Archive implements Iterable<StarRecord> {
   }
 
   /**
-   * We sort the file if
-   * - a core/extension is backed by more than one file
-   * - extensions are present
+   * We sort the files if extensions are present, to join them with the core by id.
+   * A core backed by more than one file without extensions is read one file after the other.
    */
   private boolean normalizeAndSort() {
-    boolean multiFile = getCore().isMultiLocation();
-    for (ArchiveFile extension : getExtensions()) {
-      multiFile |= extension.isMultiLocation();
-    }
-
-    boolean hasExtensions = !getExtensions().isEmpty();
-
-    return multiFile || hasExtensions;
+    return !getExtensions().isEmpty();
   }
 
   /**
-   * Performs necessary preparation for iteration over StarRecords.  If the Archive has extensions or multiple files,
-   * all the data files must be sorted by the identifier column to allow iteration.  This can take significant
-   * processing time.
+   * Performs necessary preparation for iteration over StarRecords.  If the Archive has extensions, all the data files
+   * must be sorted by the identifier column to allow iteration.  This can take significant processing time.
+   * The core and extensions are sorted concurrently, sharing the threads and memory budget of the {@link #getSorter()
+   * sorter}.
+   *
+   * @throws IOException if any data file cannot be sorted, with the failures of other files added as suppressed
    */
   public void initialize() throws IOException {
     if (normalizedAndSorted) return;
@@ -194,28 +224,63 @@ public class Archive implements Iterable<StarRecord> {
       LOG.info("Initializing Darwin Core Archive for iteration. This can take some minutes on large archives.");
 
       // Otherwise, we need to sort core + extensions
-      getCore().normalizeAndSort();
-      for (ArchiveFile archiveFile : getExtensions()) {
-        archiveFile.normalizeAndSort();
-      }
+      List<ArchiveFile> archiveFiles = new ArrayList<>();
+      archiveFiles.add(getCore());
+      archiveFiles.addAll(getExtensions());
+      sortConcurrently(archiveFiles);
 
     } else {
-      LOG.debug("Archive is single-file and has no extensions, so initialization is unnecessary.");
+      LOG.debug("Archive has no extensions, so initialization is unnecessary.");
     }
 
     normalizedAndSorted = true;
   }
 
+  /**
+   * Sorts the files on a bounded executor, each with a share of the threads and memory of the sorter.
+   */
+  private void sortConcurrently(List<ArchiveFile> archiveFiles) throws IOException {
+    ExternalSorter archiveSorter = sorter != null ? sorter : new ExternalSorter();
+    int concurrentSorts = Math.max(1, Math.min(archiveFiles.size(), archiveSorter.getThreads()));
+    ExternalSorter sharedSorter = archiveSorter.share(concurrentSorts);
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrentSorts);
+    try {
+      List<Future<Boolean>> sorts = new ArrayList<>();
+      for (ArchiveFile archiveFile : archiveFiles) {
+        sorts.add(executor.submit(() -> archiveFile.normalizeAndSort(sharedSorter)));
+      }
+
+      IOException failure = null;
+      for (int i = 0; i < sorts.size(); i++) {
+        try {
+          sorts.get(i).get();
+        } catch (ExecutionException e) {
+          LOG.error("Failed to sort data file {}", archiveFiles.get(i).getTitle(), e.getCause());
+          if (failure == null) {
+            failure = new IOException("Failed to sort data file " + archiveFiles.get(i).getTitle(), e.getCause());
+          } else {
+            failure.addSuppressed(e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sorting the data files of " + this);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * @return a complete iterator using star records with all extension records that replaces literal null values and
    * HTML entities.
    * <p>
    * Replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL", and replaces HTML & XML entities in
    * record values with the interpreted value.
-   * <p>
-   * Archives with extensions, where the core id contains extravagant Unicode characters, may not be handled correctly.
-   * (This will not affect you, since you don't have ancient scripts, emoji or mathematical symbols in your core ids,
-   * but it is documented for completeness. Further detail in {@link org.gbif.utils.file.FileUtils#sort(File, File, String, int, String, Character, String, int)}.)
    */
   @Override
   public @Nonnull ClosableIterator<StarRecord> iterator() {
@@ -225,26 +290,83 @@ public class Archive implements Iterable<StarRecord> {
   /**
    * @return a complete iterator using star records with all extension records that may replace literal null values and
    * HTML entities.
-   * <p>
-   * Archives with extensions, where the core id contains extravagant Unicode characters, may not be handled correctly.
-   * (This will not affect you, since you don't have ancient scripts, emoji or mathematical symbols in your core ids,
-   * but it is documented for completeness. Further detail in {@link org.gbif.utils.file.FileUtils#sort(File, File, String, int, String, Character, String, int)}.)
    *
    * @param replaceNulls if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
    * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
    */
   public ClosableIterator<StarRecord> iterator(boolean replaceNulls, boolean replaceEntities) {
+    return iterator(null, replaceNulls, replaceEntities);
+  }
+
+  /**
+   * @return a complete iterator using star records with all extension records, only reading the columns mapped to the
+   * given terms (and the id columns) in the core and extension files.
+   * Terms not included will return null for all records.
+   *
+   * If the archive is not {@link #initialize() initialized} yet and its extensions fit into the
+   * {@link #getHashJoinMemoryBudget() hash join memory budget}, the extensions are read into memory and star records
+   * follow the order of the unsorted core data file. Likewise if {@link #setIndexExtensions(boolean) extensions are
+   * indexed}, which avoids sorting and rewriting large extension files. If only some extensions can be indexed, the
+   * core and the other extensions are sorted and joined with the indexed extensions, so star records are ordered by
+   * core id. Otherwise all data files are sorted and star records are ordered by core id.
+   *
+   * @param terms the terms to read from the core and extensions, or null to read all terms
+   * @param replaceNulls if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  public ClosableIterator<StarRecord> iterator(Set<Term> terms, boolean replaceNulls, boolean replaceEntities) {
     try {
+      if (normalizeAndSort() && !normalizedAndSorted && isHashJoinable()) {
+        LOG.debug("Joining extensions held in memory to the unsorted core");
+        // the rows are loaded before the core is opened, so a failing extension doesn't leave the core open
+        List<ExtensionRows> extensionRows = getExtensionRows(terms, replaceNulls, replaceEntities);
+        return new HashJoinStarRecordIterator(getCore().iterator(terms, replaceNulls, replaceEntities), extensionRows);
+      }
+      if (normalizeAndSort() && !normalizedAndSorted && indexExtensions) {
+        List<ArchiveFile> indexable = getIndexableExtensions();
+        if (indexable.size() == getExtensions().size()) {
+          LOG.debug("Joining extensions indexed by id to the unsorted core");
+          List<ExtensionOffsetIndex> indexes = getExtensionIndexes(indexable, terms, replaceNulls, replaceEntities);
+          try {
+            return new HashJoinStarRecordIterator(getCore().iterator(terms, replaceNulls, replaceEntities), indexes);
+          } catch (RuntimeException e) {
+            closeAll(indexes);
+            throw e;
+          }
+        }
+        if (!indexable.isEmpty()) {
+          LOG.debug("Joining extensions indexed by id to the sorted core, sorting the other extensions");
+          List<ArchiveFile> sorted = new ArrayList<>(getExtensions());
+          sorted.removeAll(indexable);
+          sorted.add(0, getCore());
+          if (!sortedForIndexedExtensions) {
+            sortConcurrently(sorted);
+            sortedForIndexedExtensions = true;
+          }
+          List<ExtensionOffsetIndex> indexes = getExtensionIndexes(indexable, terms, replaceNulls, replaceEntities);
+          try {
+            return new StarRecordIterator(
+              getCore().sortedIterator(terms, replaceNulls, replaceEntities),
+              getExtensionIterators(sorted.subList(1, sorted.size()), terms, replaceNulls, replaceEntities),
+              indexes
+            );
+          } catch (IOException | RuntimeException e) {
+            closeAll(indexes);
+            throw e;
+          }
+        }
+      }
+
       initialize();
 
       if (normalizeAndSort()) {
         return new StarRecordIterator(
-          getCore().sortedIterator(replaceNulls, replaceEntities),
-          getExtensionIterators(replaceNulls, replaceEntities)
+          getCore().sortedIterator(terms, replaceNulls, replaceEntities),
+          getExtensionIterators(getExtensions(), terms, replaceNulls, replaceEntities)
         );
       } else {
         return new StarRecordIterator(
-          getCore().iterator(replaceNulls, replaceEntities),
+          getCore().iterator(terms, replaceNulls, replaceEntities),
           null
         );
       }
@@ -254,8 +376,138 @@ public class Archive implements Iterable<StarRecord> {
   }
 
   /**
-   * Build an iterator (pointing to the sorted tabular file) for each extension of the {@link Archive}.
+   * Finds the star record of a core id, with all its extension records, using an index of the core and extension
+   * files by id. The indexes are persisted next to the data files, and built on the first lookup if needed, see
+   * {@link ArchiveFile#buildIdIndex()}. Values are cleaned like the values of the default {@link #iterator()}.
+   *
+   * @param coreId the id of the core record
+   * @return the star record, or null if there is no core record with the id
+   * @throws UnsupportedArchiveException if a data file cannot be indexed, as it is compressed, quoted or not terminated
+   *                                     by newlines
+   */
+  public StarRecord get(String coreId) throws IOException {
+    Objects.requireNonNull(getCore(), "The archive shall have a core");
+    List<Record> cores = getCore().getRecords(coreId);
+    if (cores.isEmpty()) {
+      return null;
+    }
+
+    List<Term> rowTypes = new ArrayList<>();
+    for (ArchiveFile ext : getExtensions()) {
+      rowTypes.add(ext.getRowType());
+    }
+    StarRecordImpl rec = new StarRecordImpl(rowTypes);
+    rec.newCoreRecord(cores.get(0));
+    for (ArchiveFile ext : getExtensions()) {
+      for (Record record : ext.getRecords(coreId)) {
+        rec.addRecord(ext.getRowType(), record);
+      }
+    }
+    return rec;
+  }
+
+  /**
+   * Closes the id indexes and data files opened by {@link #get(String)}, once the lookups in progress are done.
+   * A later lookup opens them again.
+   */
+  public void closeIdLookups() {
+    if (getCore() != null) {
+      getCore().closeIdLookup();
+    }
+    for (ArchiveFile ext : getExtensions()) {
+      ext.closeIdLookup();
+    }
+  }
+
+  /**
+   * @return true if the extensions are small enough to be held in memory within the hash join memory budget
+   */
+  private boolean isHashJoinable() throws IOException {
+    long budget = getHashJoinMemoryBudget();
+    if (budget <= 0) {
+      return false;
+    }
+    long required = 0;
+    for (ArchiveFile ext : getExtensions()) {
+      long size = ext.estimateUncompressedSize();
+      if (size < 0) {
+        return false;
+      }
+      required += size * ExtensionRows.HEAP_BYTES_PER_FILE_BYTE;
+    }
+    return required <= budget;
+  }
+
+  /**
+   * Reads the rows of each extension of the {@link Archive} into memory.
+   *
+   * @param terms the terms to read, or null to read all terms
+   * @param replaceNulls flag to replace common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities flag to replace HTML & XML entities in record values with the interpreted value.
+   */
+  private List<ExtensionRows> getExtensionRows(Set<Term> terms, boolean replaceNulls, boolean replaceEntities)
+      throws IOException {
+    List<ExtensionRows> extensionRows = new ArrayList<>();
+    for (ArchiveFile ext : getExtensions()) {
+      extensionRows.add(ExtensionRows.load(ext, terms, replaceNulls, replaceEntities));
+    }
+    return extensionRows;
+  }
+
+  /**
+   * @return the extensions which can be indexed by id, extracting them from the zip file if needed
+   */
+  private List<ArchiveFile> getIndexableExtensions() throws IOException {
+    List<ArchiveFile> indexable = new ArrayList<>();
+    for (ArchiveFile ext : getExtensions()) {
+      for (File f : ext.getLocationFiles()) {
+        prepareForReading(f);
+      }
+      if (ext.isIndexable()) {
+        indexable.add(ext);
+      }
+    }
+    return indexable;
+  }
+
+  /**
+   * Indexes the lines of each of the extensions by their core id.
+   *
+   * @param extensions the extensions to index
+   * @param terms the terms to read, or null to read all terms
+   * @param replaceNulls flag to replace common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities flag to replace HTML & XML entities in record values with the interpreted value.
+   */
+  private static List<ExtensionOffsetIndex> getExtensionIndexes(List<ArchiveFile> extensions, Set<Term> terms,
+                                                                boolean replaceNulls, boolean replaceEntities)
+      throws IOException {
+    List<ExtensionOffsetIndex> indexes = new ArrayList<>();
+    try {
+      for (ArchiveFile ext : extensions) {
+        indexes.add(ExtensionOffsetIndex.build(ext, terms, replaceNulls, replaceEntities));
+      }
+    } catch (IOException | RuntimeException e) {
+      closeAll(indexes);
+      throw e;
+    }
+    return indexes;
+  }
+
+  private static void closeAll(List<ExtensionOffsetIndex> indexes) {
+    for (ExtensionOffsetIndex index : indexes) {
+      try {
+        index.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close index of {}", index.getRowType(), e);
+      }
+    }
+  }
+
+  /**
+   * Build an iterator (pointing to the sorted tabular file) for each of the extensions.
    *
+   * @param extensions the sorted extensions
+   * @param terms the terms to read, or null to read all terms
    * @param replaceNulls flag to replace common, literal NULL values with real nulls, e.g. "\N" or "NULL"
    * @param replaceEntities flag to replace HTML & XML entities in record values with the interpreted value.
    *
@@ -263,14 +515,95 @@ public class Archive implements Iterable<StarRecord> {
    *
    * @throws IOException
    */
-  private Map<Term, ClosableIterator<Record>> getExtensionIterators(boolean replaceNulls, boolean replaceEntities) throws IOException {
+  private static Map<Term, ClosableIterator<Record>> getExtensionIterators(List<ArchiveFile> extensions,
+                                                                           Set<Term> terms, boolean replaceNulls,
+                                                                           boolean replaceEntities)
+      throws IOException {
     Map<Term, ClosableIterator<Record>> extensionIterators = new HashMap<>();
-    for (ArchiveFile ext : getExtensions()) {
-      extensionIterators.put(ext.getRowType(), ext.sortedIterator(replaceNulls, replaceEntities));
+    for (ArchiveFile ext : extensions) {
+      extensionIterators.put(ext.getRowType(), ext.sortedIterator(terms, replaceNulls, replaceEntities));
     }
     return extensionIterators;
   }
 
+  /**
+   * @return the name of the file within the zip file the archive is read from, or null if it is not in the zip file
+   */
+  private String zipEntryName(File file) {
+    if (zipEntries == null || location == null) {
+      return null;
+    }
+    Path root = location.toPath().toAbsolutePath().normalize();
+    Path relative = root.relativize(file.toPath().toAbsolutePath().normalize());
+    String name = relative.toString().replace(File.separatorChar, '/');
+    return zipEntries.contains(name) ? name : null;
+  }
+
+  /**
+   * @return true if the data file exists on disk or in the zip file the archive is read from
+   */
+  boolean exists(File dataFile) {
+    return dataFile.exists() || zipEntryName(dataFile) != null;
+  }
+
+  /**
+   * @return the size of the data file on disk or, if it is only found in the zip file the archive is read from, its
+   * uncompressed size. -1 if the size is unknown
+   */
+  long size(File dataFile) {
+    String name = dataFile.exists() ? null : zipEntryName(dataFile);
+    if (name != null) {
+      return zipEntries.size(name);
+    }
+    return dataFile.exists() ? dataFile.length() : -1;
+  }
+
+  /**
+   * Opens the data file, reading it from the zip file the archive is read from if it is not on disk.
+   */
+  InputStream open(File dataFile) throws IOException {
+    String name = dataFile.exists() ? null : zipEntryName(dataFile);
+    return name == null ? Files.newInputStream(dataFile.toPath()) : zipEntries.open(name);
+  }
+
+  /**
+   * Makes sure the data file exists on disk, extracting it from the zip file the archive is read from if needed.
+   */
+  void extract(File dataFile) throws IOException {
+    String name = dataFile.exists() ? null : zipEntryName(dataFile);
+    if (name != null) {
+      synchronized (extractionLocks.computeIfAbsent(name, n -> new Object())) {
+        if (!dataFile.exists()) {
+          LOG.debug("Extracting {} to {}", name, dataFile);
+          zipEntries.extract(name, dataFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Prepares a data file before it is read, extracting it from the zip file if the archive is extracted lazily.
+   */
+  void prepareForReading(File dataFile) throws IOException {
+    if (extractOnRead) {
+      extract(dataFile);
+    }
+  }
+
+  /**
+   * Reads data files which are not found in the archive location from the zip file instead.
+   */
+  void setZipEntries(ZipArchiveEntries zipEntries) {
+    this.zipEntries = zipEntries;
+  }
+
+  /**
+   * Extracts data files from the zip file the first time they are read, instead of reading them from the zip file.
+   */
+  void setExtractOnRead(boolean extractOnRead) {
+    this.extractOnRead = extractOnRead;
+  }
+
   public void setCore(ArchiveFile core) {
     core.setArchive(this);
     this.core = core;
@@ -288,6 +621,74 @@ public class Archive implements Iterable<StarRecord> {
     this.metadataLocation = metadataLocation;
   }
 
+  /**
+   * @return the sorter used to sort the core and extension files by id, or null if the default sorter is used
+   */
+  public ExternalSorter getSorter() {
+    return sorter;
+  }
+
+  /**
+   * Configures the threads, memory budget and spill directory used to sort the core and extension files by id.
+   */
+  public void setSorter(ExternalSorter sorter) {
+    this.sorter = sorter;
+  }
+
+  /**
+   * @return the heap available to hold all extensions in memory, to iterate star records without sorting any data
+   * file, or 0 if data files are always sorted
+   */
+  public long getHashJoinMemoryBudget() {
+    return hashJoinMemoryBudget;
+  }
+
+  /**
+   * Configures the heap available to hold all extensions in memory. Star records of archives with extensions small
+   * enough are iterated in the order of the unsorted core data file, looking up extension records in memory instead of
+   * sorting all data files.
+   *
+   * Star records are then no longer ordered by core id. By default the budget is 0, and data files are always sorted.
+   *
+   * @param hashJoinMemoryBudget the number of bytes, 0 to always sort
+   */
+  public void setHashJoinMemoryBudget(long hashJoinMemoryBudget) {
+    this.hashJoinMemoryBudget = hashJoinMemoryBudget;
+  }
+
+  /**
+   * @return true if extensions which can't be held in memory are indexed by id instead of being sorted
+   */
+  public boolean isIndexExtensions() {
+    return indexExtensions;
+  }
+
+  /**
+   * Configures star record iteration to index the lines of extensions by their core id in a single pass, instead of
+   * sorting them, and to read the extension records of each core record with positional reads. Star records then
+   * follow the order of the unsorted core data file. Extensions which are compressed, quoted or not terminated by
+   * newlines are still sorted, together with the core, and only the other extensions are indexed.
+   */
+  public void setIndexExtensions(boolean indexExtensions) {
+    this.indexExtensions = indexExtensions;
+  }
+
+  /**
+   * @return the cache holding the sorted data files, or null if data files are sorted next to them
+   */
+  public SortedFileCache getSortedFileCache() {
+    return sortedFileCache;
+  }
+
+  /**
+   * Configures a directory to sort the data files into, instead of the archive location, so archives on read-only
+   * storage can be iterated as star records. Data files with the same content, e.g. copies of the same archive read
+   * by different processes, share their sorted files in the cache.
+   */
+  public void setSortedFileCache(SortedFileCache sortedFileCache) {
+    this.sortedFileCache = sortedFileCache;
+  }
+
   public DwcLayout getDwcLayout() {
     return dwcLayout;
   }
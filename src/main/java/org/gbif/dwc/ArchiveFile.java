@@ -16,6 +16,7 @@ package org.gbif.dwc;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.RandomStringGenerator;
 import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.RecordSchema;
 import org.gbif.dwc.terms.Term;
 import org.gbif.dwc.terms.TermFactory;
 import org.gbif.utils.file.ClosableIterator;
@@ -26,25 +27,38 @@ import org.gbif.utils.file.tabular.TabularFiles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.io.Reader;
-import java.nio.channels.FileLock;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
 
 /**
  * This class encapsulates information about a file contained within a Darwin Core Archive. It
@@ -52,12 +66,19 @@ import java.util.stream.Collectors;
  *
  * In the case of a fake single-file archive, it represents that.  In this case, archive is null.
  *
+ * Data files with a .gz extension are gzip compressed and decompressed while reading.
+ *
  * @see <a href="http://rs.tdwg.org/dwc/text/tdwg_dwc_text.xsd">Darwin Core Archive XSD</a>
  */
 public class ArchiveFile implements Iterable<Record> {
   private static final Logger LOG = LoggerFactory.getLogger(ArchiveFile.class);
 
-  private static final FileUtils FILE_UTILS = new FileUtils();
+  private static final ExternalSorter DEFAULT_SORTER = new ExternalSorter();
+  private static final int GZIP_BUFFER_SIZE = 1 << 16;
+  // times a sorted file evicted from the cache before it is opened is sorted again
+  private static final int MAX_CACHED_SORT_ATTEMPTS = 3;
+  // compressions recognised by their extension which cannot be decompressed
+  private static final List<String> UNSUPPORTED_COMPRESSIONS = List.of(".bz2", ".zst", ".xz", ".lz4");
   private static final TermFactory TERM_FACTORY = TermFactory.instance();
 
   public static final Term DEFAULT_ID_TERM = TERM_FACTORY.findPropertyTerm("ARCHIVE_RECORD_ID");
@@ -103,6 +124,12 @@ public class ArchiveFile implements Iterable<Record> {
   // TODO: Change to SortedMap and remove rawArchiveFields?
   private final Map<Term, ArchiveField> fields = new HashMap<>();
   private final List<ArchiveField> rawArchiveFields = new ArrayList<>();
+  // the persisted id index and a reader of the data files, opened on the first lookup by id and kept open
+  private volatile IdLookup idLookup;
+  // the sorted file in the sorted file cache of the archive, or null if the sorted file is next to the data file
+  private volatile File cachedSortedFile;
+  // compiled on first use, dropped when the id or fields change
+  private volatile RecordSchema schema;
 
   public static ArchiveFile buildCsvFile() {
     ArchiveFile af = new ArchiveFile();
@@ -140,8 +167,15 @@ public class ArchiveFile implements Iterable<Record> {
     if (getFirstLocation() == null) {
       throw new UnsupportedArchiveException("DwC-A data file »" + title + "« requires a location");
     }
+    for (String location : getLocations()) {
+      String name = location.toLowerCase(Locale.ROOT);
+      if (UNSUPPORTED_COMPRESSIONS.stream().anyMatch(name::endsWith)) {
+        throw new UnsupportedArchiveException("DwC-A data file »" + title + "« uses an unsupported compression, "
+            + "only gzip compressed data files can be read");
+      }
+    }
     for (File f : getLocationFiles()) {
-      if (!f.exists()) {
+      if (archive == null ? !f.exists() : !archive.exists(f)) {
         throw new UnsupportedArchiveException("DwC-A data file »" + title + "« does not exist");
       }
     }
@@ -157,108 +191,442 @@ public class ArchiveFile implements Iterable<Record> {
    */
   /*
    * Sorting implies a normalization phase to ensure we sort the file properly.
-   * Note that the file will not be sorted if the sorted file is already there and its date is later than the file
-   * we want to sort.
+   * Note that the file will not be sorted if the sorted file is already there and its manifest shows the content of
+   * the file we want to sort didn't change. Files which are already in id order are not sorted either, but linked or
+   * copied as the sorted file.
    *
    * This method is synchronized to prevent multiple threads trying to normalize/sort a file at the same time,
    * and uses an advisory lock to avoid conflict between multiple processes.
    */
-  protected synchronized boolean normalizeAndSort() throws IOException {
+  protected boolean normalizeAndSort() throws IOException {
+    return normalizeAndSort(getSorter());
+  }
+
+  /**
+   * Normalizes and sorts the data file with the given sorter, e.g. sharing resources with sorts of other files.
+   *
+   * @see #normalizeAndSort()
+   */
+  synchronized boolean normalizeAndSort(ExternalSorter sorter) throws IOException {
+    SortedFileCache cache = archive != null ? archive.getSortedFileCache() : null;
+    if (cache != null) {
+      return sortCached(sorter, cache);
+    }
+    return FileLocks.locked(getLocationLockFile(getFirstLocationFile()), () -> sort(sorter));
+  }
+
+  private boolean sort(ExternalSorter sorter) throws IOException {
     List<File> filesToSort = getLocationFiles();
     File sortedFile = getLocationFileSorted(getFirstLocationFile());
 
-    File lockFile = getLocationLockFile(getFirstLocationFile());
-    RandomAccessFile lockFileRA = new RandomAccessFile(lockFile, "rw");
+    // files read from a zip file are sorted on disk
+    if (archive != null) {
+      for (File f : filesToSort) {
+        archive.extract(f);
+      }
+    }
 
-    FileLock lock = lockFileRA.getChannel().tryLock();
-    if (lock == null) {
-      LOG.warn("Another process has locked this DWCA for initialization; waiting until the lock is released.");
-      lock = lockFileRA.getChannel().lock();
-      LOG.warn("Other process has released lock; lock taken, proceeding.");
+    // If we already sorted the file and the content of its source didn't change we can avoid doing it again
+    if (DataFileManifest.matches(sortedFile, filesToSort)) {
+      LOG.debug("File {} is already sorted ({}B)", sortedFile, sortedFile.length());
+      return false;
+    }
+    if (sortedFile.exists()) {
+      LOG.info("Deleting existing (old) sorted file {} ({}B)", sortedFile, sortedFile.length());
+      DataFileManifest.delete(sortedFile);
+      sortedFile.delete();
     }
+    String manifest = DataFileManifest.of(filesToSort);
 
-    try {
-      // If we already sorted the file and its source didn't change we can avoid doing it again
-      long youngestFileTime = Long.MIN_VALUE;
+    // Sort to this temporary location, then move the file in place once the sort is completed.
+    // (Avoids leaving half-sorted files lying around.)
+    File temporarySortedFile = getLocationTempFileSorted(getFirstLocationFile());
+    writeSorted(sorter, filesToSort, temporarySortedFile, true);
+
+    Files.move(temporarySortedFile.toPath(), sortedFile.toPath());
+    DataFileManifest.write(sortedFile, manifest);
+    return true;
+  }
+
+  /**
+   * Sorts the data files into the sorted file cache of the archive, unless the cache already holds the sorted file of
+   * data files with the same content. Nothing is written next to the data files, except for data files extracted from
+   * the zip file of the archive.
+   */
+  private boolean sortCached(ExternalSorter sorter, SortedFileCache cache) throws IOException {
+    List<File> filesToSort = getLocationFiles();
+    if (archive != null) {
       for (File f : filesToSort) {
-        youngestFileTime = Math.max(youngestFileTime, f.lastModified());
+        archive.extract(f);
       }
-      if (sortedFile.exists()) {
-        if (sortedFile.lastModified() > youngestFileTime) {
-          LOG.debug("File {} is already sorted ({}B)", sortedFile, sortedFile.length());
-          return false;
-        } else {
-          LOG.info("Deleting existing (old) sorted file {} ({}B)", sortedFile, sortedFile.length());
-          sortedFile.delete();
-        }
+    }
+    String key = SortedFileCache.key(filesToSort, sortOptions(sorter));
+    File sortedFile = cache.sortedFile(key);
+
+    return FileLocks.locked(cache.lockFile(key), () -> {
+      // a file evicted by another archive is sorted again
+      if (cache.touch(sortedFile)) {
+        LOG.debug("File {} is already sorted in the cache as {}", getFirstLocationFile(), sortedFile);
+        cachedSortedFile = sortedFile;
+        return false;
       }
 
-      List<File> normalizedFiles = normalizeIfRequired();
-      if (normalizedFiles != null) {
-        filesToSort = normalizedFiles;
+      // the cached file must not be a link, as its content would change with the data file
+      File temporarySortedFile = cache.temporaryFile(key);
+      try {
+        writeSorted(sorter, filesToSort, temporarySortedFile, false);
+        Files.move(temporarySortedFile.toPath(), sortedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temporarySortedFile.toPath());
       }
+      LOG.debug("Sorted {} into the cache as {} ({}B)", getFirstLocationFile(), sortedFile, sortedFile.length());
+      cachedSortedFile = sortedFile;
+      cache.evict(sortedFile);
+      return true;
+    });
+  }
 
-      // Sort to this temporary location, then move the file in place once the sort is completed.
-      // (Avoids leaving half-sorted files lying around.)
-      File temporarySortedFile = getLocationTempFileSorted(getFirstLocationFile());
+  /**
+   * @return the options which, together with the content of the data files, determine the content of the sorted file
+   */
+  private String sortOptions(ExternalSorter sorter) {
+    return "id=" + getId().getIndex()
+        + "\tfieldsTerminatedBy=" + getFieldsTerminatedBy()
+        + "\tfieldsEnclosedBy=" + getFieldsEnclosedBy()
+        + "\tlinesTerminatedBy=" + getLinesTerminatedBy()
+        + "\tignoreHeaderLines=" + getIgnoreHeaderLines()
+        + "\tencoding=" + getEncoding()
+        + "\tcompressed=" + sorter.isCompressOutput();
+  }
 
-      FILE_UTILS.sort(filesToSort, temporarySortedFile, getEncoding(),
-          getId().getIndex(), getFieldsTerminatedBy(), getFieldsEnclosedBy(),
-          TabularFileNormalizer.NORMALIZED_END_OF_LINE, getIgnoreHeaderLines());
+  /**
+   * Writes the normalized lines of the data files sorted by id into the target file.
+   *
+   * @param allowLink if true the target may be a hard link to a data file which is already sorted
+   */
+  private void writeSorted(ExternalSorter sorter, List<File> filesToSort, File target, boolean allowLink)
+      throws IOException {
+    // lines are normalized while they are read into the sort, so no normalized copy is written
+    List<SupplierWithIO<ExternalSorter.LineSource>> sources = new ArrayList<>();
+    for (File f : filesToSort) {
+      sources.add(() -> normalizedLines(f));
+    }
 
-      if (normalizedFiles != null) {
-        for (File f : normalizedFiles) {
-          Files.deleteIfExists(f.toPath());
-        }
+    // Data files written in id order, e.g. by the DwcaWriter, don't need to be sorted
+    if (sorter.isSorted(sources, getId().getIndex(), getFieldsTerminatedByChar(), getFieldsEnclosedBy(),
+        getIgnoreHeaderLines())) {
+      if (allowLink && isLinkable(filesToSort, sorter) && link(filesToSort.get(0), target)) {
+        LOG.debug("File {} is already sorted, linked as {}", filesToSort.get(0), target);
+      } else {
+        LOG.debug("File {} is already sorted, copying to {}", getFirstLocationFile(), target);
+        sorter.copyLines(sources, target, Charset.forName(getEncoding()), getIgnoreHeaderLines());
       }
+      return;
+    }
+
+    sorter.sortLines(sources, target, Charset.forName(getEncoding()),
+        getId().getIndex(), getFieldsTerminatedByChar(), getFieldsEnclosedBy(), getIgnoreHeaderLines());
+  }
 
-      Files.move(temporarySortedFile.toPath(), sortedFile.toPath());
+  /**
+   * Builds an index of the lines of the data files by their id, persisted next to the data file like the sorted file,
+   * so that records can be found by their id without reading the data files.
+   * The index is not built again if it exists and the content of the data files didn't change.
+   *
+   * @return true if the index was built, false if the existing index was kept
+   * @throws UnsupportedArchiveException if the data files are not indexable plain text files
+   * @see Archive#get(String)
+   */
+  public synchronized boolean buildIdIndex() throws IOException {
+    if (archive != null) {
+      for (File f : getLocationFiles()) {
+        archive.extract(f);
+      }
+    }
+    if (!isIndexable()) {
+      throw new UnsupportedArchiveException("DwC-A data file »" + title + "« cannot be indexed, only uncompressed, "
+          + "unquoted files terminated by newlines can be indexed");
+    }
+    File lockFile = getLocationLockFile(getFirstLocationFile());
+    return FileLocks.locked(lockFile, () -> {
+      File indexFile = getLocationFileIndex(getFirstLocationFile());
+      if (DataFileManifest.matches(indexFile, getLocationFiles())) {
+        LOG.debug("File {} is already indexed", getFirstLocationFile());
+        return false;
+      }
+      DataFileManifest.delete(indexFile);
+      String manifest = DataFileManifest.of(getLocationFiles());
+
+      // ids are cleaned like the ids of records read by the default iterator
+      ExtensionOffsetIndex index = ExtensionOffsetIndex.scan(this, true, true);
+      File temporaryIndexFile = new File(indexFile.getParentFile(),
+          indexFile.getName() + "_" + RANDOM_STRING_GENERATOR.generate(10));
+      try {
+        IdIndexFile.write(index, temporaryIndexFile);
+        Files.move(temporaryIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        DataFileManifest.write(indexFile, manifest);
+      } finally {
+        Files.deleteIfExists(temporaryIndexFile.toPath());
+      }
+      if (idLookup != null) {
+        replaceIdLookup(openIdLookup());
+      }
+      LOG.debug("Indexed {} lines of {}", index.size(), getFirstLocationFile());
       return true;
+    });
+  }
+
+  /**
+   * Finds the records with the id, using the persisted id index which is built if needed.
+   * Values are cleaned like the values of the records of the default {@link #iterator()}.
+   * Lookups run concurrently once the index is open, as lines are read with positional reads.
+   *
+   * @return the records in the order of the data files
+   */
+  List<Record> getRecords(String id) throws IOException {
+    IdLookup lookup = acquireIdLookup();
+    try {
+      List<Record> records = new ArrayList<>();
+      lookup.index.find(ExtensionOffsetIndex.hash(id), (hash, position, length) -> {
+        Record record = lookup.reader.read(position, length);
+        if (id.equals(record.id())) {
+          records.add(record);
+        }
+      });
+      return records;
     } finally {
-      lock.release();
-      lockFileRA.close();
+      releaseIdLookup(lookup);
     }
   }
 
   /**
-   * Apply file normalization if required.
-   **
-   * @return normalizedFile or null if normalization was not applied
-   *
-   * @throws IOException
+   * Closes the id index and the data files opened for lookups by id, once the lookups in progress are done.
+   * A later lookup opens them again.
    */
-  protected List<File> normalizeIfRequired() throws IOException {
-    // If the linesTerminatedBy used is the same as TabularFileNormalizer and no quoted cells are used
-    // we can skip normalization
-    boolean normalizationRequired = ! TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(getLinesTerminatedBy())
-        || getFieldsEnclosedBy() != null;
+  public synchronized void closeIdLookup() {
+    replaceIdLookup(null);
+  }
 
-    if (normalizationRequired) {
-      List<File> normalizedFiles = new ArrayList<>();
-      for (File f : getLocationFiles()) {
-        File normalizedFile = getLocationFileNormalized(f);
-        TabularFileNormalizer.normalizeFile(f.toPath(), normalizedFile.toPath(),
-          Charset.forName(getEncoding()), getFieldsTerminatedByChar(),
-          getLinesTerminatedBy(), getFieldsEnclosedBy());
-        normalizedFiles.add(normalizedFile);
+  /**
+   * @return the current id lookup, acquired for a single lookup. The index is built on the first lookup if needed,
+   * and checked again if the size or modification time of a data file changed.
+   */
+  private IdLookup acquireIdLookup() throws IOException {
+    while (true) {
+      IdLookup lookup = idLookup;
+      if (lookup == null) {
+        synchronized (this) {
+          if (idLookup == null) {
+            buildIdIndex();
+            if (idLookup == null) {
+              idLookup = openIdLookup();
+            }
+          }
+          lookup = idLookup;
+        }
+      } else if (lookup.isStale()) {
+        synchronized (this) {
+          if (idLookup == lookup) {
+            replaceIdLookup(null);
+          }
+        }
+        continue;
+      }
+      if (lookup.acquire()) {
+        return lookup;
       }
-      return normalizedFiles;
     }
-    return null;
   }
 
-  protected static File getLocationFileNormalized(File location) {
-    return new File(location.getParentFile(), location.getName() + "-normalized");
+  private IdLookup openIdLookup() throws IOException {
+    IdIndexFile index = IdIndexFile.open(getLocationFileIndex(getFirstLocationFile()));
+    return new IdLookup(index, new PositionalRecordReader(this, null, true, true), getLocationFiles());
+  }
+
+  /**
+   * Replaces the current id lookup, which is closed once the lookups in progress are done.
+   */
+  private synchronized void replaceIdLookup(IdLookup lookup) {
+    IdLookup retired = idLookup;
+    idLookup = lookup;
+    if (retired != null) {
+      releaseIdLookup(retired);
+    }
+  }
+
+  private void releaseIdLookup(IdLookup lookup) {
+    try {
+      lookup.release();
+    } catch (IOException e) {
+      LOG.warn("Failed to close the data files of {} read by id", getFirstLocationFile(), e);
+    }
+  }
+
+  /**
+   * The id index of the data files together with the reader of the lines it points to.
+   * Lookups acquire it, so a lookup replaced while lookups are in progress is only closed once they are done.
+   */
+  private static final class IdLookup {
+    private final IdIndexFile index;
+    private final PositionalRecordReader reader;
+    private final List<File> files;
+    // size and modification time of each data file when the lookup was opened
+    private final long[] stamps;
+    // lookups in progress, plus one while the lookup is the current lookup of the archive file
+    private final AtomicInteger users = new AtomicInteger(1);
+
+    private IdLookup(IdIndexFile index, PositionalRecordReader reader, List<File> files) {
+      this.index = index;
+      this.reader = reader;
+      this.files = files;
+      this.stamps = stamps(files);
+    }
+
+    private static long[] stamps(List<File> files) {
+      long[] stamps = new long[files.size() * 2];
+      for (int f = 0; f < files.size(); f++) {
+        stamps[2 * f] = files.get(f).length();
+        stamps[2 * f + 1] = files.get(f).lastModified();
+      }
+      return stamps;
+    }
+
+    /**
+     * @return true if a data file might have changed since the lookup was opened
+     */
+    private boolean isStale() {
+      return !Arrays.equals(stamps, stamps(files));
+    }
+
+    /**
+     * @return false if the lookup is already closed
+     */
+    private boolean acquire() {
+      int n = users.get();
+      while (n > 0) {
+        if (users.compareAndSet(n, n + 1)) {
+          return true;
+        }
+        n = users.get();
+      }
+      return false;
+    }
+
+    private void release() throws IOException {
+      if (users.decrementAndGet() == 0) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * @return true if the sorted data file can be a link to the single data file, which is already in the format of
+   * sorted files
+   */
+  private boolean isLinkable(List<File> dataFiles, ExternalSorter sorter) throws IOException {
+    return dataFiles.size() == 1 && !sorter.isCompressOutput() && arePlainFiles(dataFiles)
+        && TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(getLinesTerminatedBy()) && getFieldsEnclosedBy() == null;
+  }
+
+  /**
+   * Creates a hard link to the data file.
+   *
+   * @return false if the file system doesn't support links
+   */
+  private static boolean link(File dataFile, File link) {
+    try {
+      Files.createLink(link.toPath(), dataFile.toPath());
+      return true;
+    } catch (IOException | UnsupportedOperationException e) {
+      LOG.debug("Cannot link {} to {}: {}", link, dataFile, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Reads the lines of a data file normalized to be sorted: decompressed, terminated by newlines and with newlines
+   * within quoted values replaced by spaces.
+   */
+  private ExternalSorter.LineSource normalizedLines(File dataFile) throws IOException {
+    Reader reader = new InputStreamReader(open(dataFile), Charset.forName(getEncoding()));
+    if (TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(getLinesTerminatedBy()) && getFieldsEnclosedBy() == null) {
+      BufferedReader lines = new BufferedReader(reader);
+      return new ExternalSorter.LineSource() {
+        @Override
+        public String readLine() throws IOException {
+          return lines.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+          lines.close();
+        }
+      };
+    }
+
+    TabularDataFileReader<List<String>> rows = TabularFiles.newTabularFileReader(reader,
+        getFieldsTerminatedByChar(), getLinesTerminatedBy(), getFieldsEnclosedBy(), false);
+    return new ExternalSorter.LineSource() {
+      @Override
+      public String readLine() throws IOException {
+        try {
+          List<String> row = rows.read();
+          return row == null ? null : normalizedLine(row, getFieldsTerminatedByChar(), getFieldsEnclosedBy());
+        } catch (ParseException e) {
+          throw new IOException("Failed to parse " + dataFile, e);
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        rows.close();
+      }
+    };
+  }
+
+  /**
+   * Joins the values of a row into a single line, quoting values which contain the delimiter or quote character and
+   * replacing line breaks with spaces.
+   */
+  static String normalizedLine(List<String> row, char delimiter, Character quote) {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < row.size(); i++) {
+      if (i > 0) {
+        line.append(delimiter);
+      }
+      String value = row.get(i);
+      if (value != null) {
+        value = StringUtils.replaceChars(value, "\r\n", "  ");
+        if (quote != null && (value.indexOf(delimiter) >= 0 || value.indexOf(quote) >= 0)) {
+          String q = quote.toString();
+          line.append(q).append(value.replace(q, q + q)).append(q);
+        } else {
+          line.append(value);
+        }
+      }
+    }
+    return line.toString();
   }
 
   protected static File getLocationFileSorted(File location) {
     return new File(location.getParentFile(), location.getName() + "-sorted");
   }
 
+  protected static File getLocationFileIndex(File location) {
+    return new File(location.getParentFile(), location.getName() + "-index");
+  }
+
   protected static File getLocationTempFileSorted(File location) {
     return new File(location.getParentFile(), location.getName() + "-sorted_" + RANDOM_STRING_GENERATOR.generate(10));
   }
 
+  /**
+   * @return the sorter configured for the archive, or a default sorter
+   */
+  private ExternalSorter getSorter() {
+    return archive != null && archive.getSorter() != null ? archive.getSorter() : DEFAULT_SORTER;
+  }
+
   private static File getLocationLockFile(File location) {
     return new File(location.getParentFile(), location.getName() + "-lock");
   }
@@ -266,6 +634,7 @@ public class ArchiveFile implements Iterable<Record> {
   public void addField(ArchiveField field) {
     fields.put(field.getTerm(), field);
     rawArchiveFields.add(field);
+    schema = null;
   }
 
   public void addLocation(String location) {
@@ -302,10 +671,42 @@ public class ArchiveFile implements Iterable<Record> {
     return getField(TERM_FACTORY.findPropertyTerm(term));
   }
 
+  /**
+   * @param terms the terms to keep, or null to keep all terms
+   * @return the fields mapped to the given terms
+   */
+  Map<Term, ArchiveField> getFields(Set<Term> terms) {
+    if (terms == null) {
+      return getFields();
+    }
+    Map<Term, ArchiveField> projectedFields = new HashMap<>();
+    for (Term term : terms) {
+      ArchiveField field = getField(term);
+      if (field != null) {
+        projectedFields.put(term, field);
+      }
+    }
+    return projectedFields;
+  }
+
   public Map<Term, ArchiveField> getFields() {
     return fields;
   }
 
+  /**
+   * Compiles the id and fields of this file into a {@link RecordSchema}, shared by the records of this file.
+   * The schema is compiled once and again after {@link #addField} or {@link #setId}; changes made directly to the
+   * fields map or to the fields themselves are not reflected.
+   */
+  public RecordSchema getSchema() {
+    RecordSchema s = schema;
+    if (s == null) {
+      s = RecordSchema.of(getId(), getFields());
+      schema = s;
+    }
+    return s;
+  }
+
   public Character getFieldsEnclosedBy() {
     return fieldsEnclosedBy;
   }
@@ -539,13 +940,122 @@ public class ArchiveFile implements Iterable<Record> {
     return iterator(true, true);
   }
 
-  private Reader getReader(boolean sorted) throws IOException {
+  /**
+   * @return the data file to read, i.e. the (first) location or the sorted file
+   */
+  private File getDataFile(boolean sorted) {
     // ArchiveFile location, or Archive in case this is a fake single-file "archive".
     File file = getFirstLocationFile() != null ? getFirstLocationFile() : getArchive().getLocation();
     if (sorted) {
-      file = getLocationFileSorted(file);
+      file = cachedSortedFile != null ? cachedSortedFile : getLocationFileSorted(file);
+    }
+    return file;
+  }
+
+  /**
+   * @return the data files to read one after the other, i.e. all locations or the sorted file
+   */
+  private List<File> getDataFiles(boolean sorted) {
+    return sorted || !isMultiLocation() ? Collections.singletonList(getDataFile(sorted)) : getLocationFiles();
+  }
+
+  private Reader getReader(File dataFile) throws IOException {
+    return new BufferedReader(new InputStreamReader(open(dataFile), Charset.forName(getEncoding()).newDecoder()));
+  }
+
+  /**
+   * Opens the data file, which might only exist within the zip file of the archive.
+   */
+  private InputStream open(File dataFile) throws IOException {
+    InputStream in = archive == null ? Files.newInputStream(dataFile.toPath()) : archive.open(dataFile);
+    return isCompressed(dataFile) ? new GZIPInputStream(in, GZIP_BUFFER_SIZE) : in;
+  }
+
+  /**
+   * @return true if the data file is gzip compressed, recognised by its extension or, for sorted files which keep
+   * their name if they are compressed, by the gzip header
+   */
+  private static boolean isCompressed(File dataFile) throws IOException {
+    if (isGzipped(dataFile.getName())) {
+      return true;
+    }
+    if (dataFile.getName().endsWith("-sorted") && dataFile.isFile()) {
+      try (InputStream in = Files.newInputStream(dataFile.toPath())) {
+        byte[] header = in.readNBytes(2);
+        return header.length == 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the lines of the data files can be indexed by id and read with positional reads, i.e. the data
+   * files are plain files on disk, split on their raw bytes like the {@link ByteRecordIterator} does
+   * @see ExtensionOffsetIndex
+   */
+  boolean isIndexable() throws IOException {
+    return getId() != null && getId().getIndex() != null
+        && TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(getLinesTerminatedBy()) && isUnquotedAsciiCompatible()
+        && arePlainFiles(getLocationFiles());
+  }
+
+  /**
+   * Estimates the size of the uncompressed data files, e.g. to decide whether their records can be held in memory.
+   * The size of gzip compressed files is taken from the gzip trailer, which holds the uncompressed size modulo 4GB.
+   *
+   * @return the number of bytes, or -1 if the size of a data file is unknown
+   */
+  long estimateUncompressedSize() throws IOException {
+    long total = 0;
+    for (File f : getLocationFiles()) {
+      long size = archive == null ? (f.exists() ? f.length() : -1) : archive.size(f);
+      if (size >= 0 && isGzipped(f.getName())) {
+        if (!f.exists() || size < 4) {
+          return -1;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+          raf.seek(size - 4);
+          long trailer = Integer.toUnsignedLong(Integer.reverseBytes(raf.readInt()));
+          size = Math.max(size, trailer);
+        }
+      }
+      if (size < 0) {
+        return -1;
+      }
+      total += size;
+    }
+    return total;
+  }
+
+  /**
+   * @return true if the data file is gzip compressed, recognised by its .gz or .gzip extension
+   */
+  private static boolean isGzipped(String location) {
+    String name = location.toLowerCase(Locale.ROOT);
+    return name.endsWith(".gz") || name.endsWith(".gzip");
+  }
+
+  /**
+   * @return true if the data files can be read as they are stored, i.e. they exist on disk and are not compressed
+   */
+  private static boolean arePlainFiles(List<File> dataFiles) throws IOException {
+    for (File f : dataFiles) {
+      if (!f.exists() || isCompressed(f)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Prepares the data files before they are read, e.g. extracting them from the zip file of the archive.
+   */
+  private void prepareForReading(List<File> dataFiles) throws IOException {
+    if (archive != null) {
+      for (File dataFile : dataFiles) {
+        archive.prepareForReading(dataFile);
+      }
     }
-    return Files.newBufferedReader(file.toPath(), Charset.forName(getEncoding()));
   }
 
   /**
@@ -555,21 +1065,194 @@ public class ArchiveFile implements Iterable<Record> {
    * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
    */
   public ClosableIterator<Record> iterator(boolean replaceNulls, boolean replaceEntities) {
+    return iterator(null, replaceNulls, replaceEntities);
+  }
+
+  /**
+   * Get a {@link ClosableIterator} over the records in this file, only reading the columns mapped to the given terms
+   * and the id column, optionally replacing nulls and entities.
+   * The records only know about the requested terms, other terms will return null.
+   *
+   * Unquoted, newline terminated files in an ASCII compatible encoding are split on their raw bytes, and read through
+   * a memory mapped buffer if terms are given, so that only the values which are accessed are decoded.
+   * Multiple files are read one after the other, in the order of their locations.
+   *
+   * @param terms           the terms to read, or null to read all terms
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  public ClosableIterator<Record> iterator(Set<Term> terms, boolean replaceNulls, boolean replaceEntities) {
     try {
-      // Use the sortedIterator (sorted into a single file) if there are multiple files.
-      if (getLocations().size() > 1) {
-        return sortedIterator(replaceNulls, replaceEntities);
-      }
+      return recordIterator(false, terms, replaceNulls, replaceEntities, false);
+    } catch (IOException e) {
+      throw new UnsupportedArchiveException(e);
+    }
+  }
 
-      TabularDataFileReader<List<String>> tabularFileReader = TabularFiles.newTabularFileReader(getReader(false),
-          getFieldsTerminatedByChar(), getLinesTerminatedBy(), getFieldsEnclosedBy(),
-          areHeaderLinesIncluded(), getLinesToSkipBeforeHeader());
-      return new DwcRecordIterator(tabularFileReader, getId(), getFields(), getRowType(), replaceNulls, replaceEntities);
+  /**
+   * Get a {@link ClosableIterator} over the records in this file which returns the same, refilled record instance for
+   * every row, avoiding a new record per row when records are processed one by one.
+   * A record is only valid until the next call to {@link ClosableIterator#hasNext()} or
+   * {@link ClosableIterator#next()}, so records must not be kept across iterations.
+   *
+   * @param terms           the terms to read, or null to read all terms
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   * @see #iterator(Set, boolean, boolean)
+   */
+  public ClosableIterator<Record> reusingIterator(Set<Term> terms, boolean replaceNulls, boolean replaceEntities) {
+    try {
+      return recordIterator(false, terms, replaceNulls, replaceEntities, true);
     } catch (IOException e) {
       throw new UnsupportedArchiveException(e);
     }
   }
 
+  /**
+   * Determines if the data file can be read through a memory mapped buffer: a single, uncompressed location of
+   * unquoted values, separated by a single byte delimiter, terminated by newlines and encoded in an ASCII compatible
+   * encoding.
+   *
+   * @return true if {@link #mappedIterator(boolean, boolean)} reads the file through a memory mapped buffer
+   */
+  public boolean isMemoryMappable() {
+    return getLocations().size() <= 1
+        && getLocations().stream().noneMatch(ArchiveFile::isGzipped)
+        && TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(getLinesTerminatedBy())
+        && isUnquotedAsciiCompatible();
+  }
+
+  /**
+   * @return true if values are unquoted, the delimiter a single byte and the encoding ASCII compatible
+   */
+  private boolean isUnquotedAsciiCompatible() {
+    if (getFieldsEnclosedBy() != null
+        || fieldsTerminatedBy == null || fieldsTerminatedBy.length() != 1 || fieldsTerminatedBy.charAt(0) > 127) {
+      return false;
+    }
+    try {
+      Charset charset = Charset.forName(getEncoding());
+      return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset)
+          || StandardCharsets.ISO_8859_1.equals(charset) || "windows-1252".equals(charset.name());
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Get a {@link ClosableIterator} over the records in this file reading the data file through a memory mapped
+   * buffer, optionally replacing nulls and entities.
+   * Records only keep the offsets of their values, which are decoded when accessed.
+   *
+   * Falls back to {@link #iterator(boolean, boolean)} if the file is not {@link #isMemoryMappable() memory mappable}.
+   *
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  public ClosableIterator<Record> mappedIterator(boolean replaceNulls, boolean replaceEntities) {
+    boolean plainFiles;
+    try {
+      prepareForReading(getDataFiles(false));
+      plainFiles = arePlainFiles(getDataFiles(false));
+    } catch (IOException e) {
+      throw new UnsupportedArchiveException(e);
+    }
+    if (!isMemoryMappable() || !plainFiles) {
+      LOG.debug("Data file {} cannot be memory mapped, using a regular reader", title);
+      return iterator(replaceNulls, replaceEntities);
+    }
+    try {
+      return mappedRecordIterator(getDataFile(false), getFields(), replaceNulls, replaceEntities, false);
+    } catch (IOException e) {
+      throw new UnsupportedArchiveException(e);
+    }
+  }
+
+  /**
+   * Get a sequential {@link Stream} over the records in this file, replacing nulls and entities.
+   * The stream must be closed to release the underlying files.
+   */
+  public Stream<Record> stream() {
+    return stream(false, true, true);
+  }
+
+  /**
+   * Get a parallel {@link Stream} over the records in this file, replacing nulls and entities.
+   * The stream must be closed to release the underlying files.
+   *
+   * @see #stream(boolean, boolean, boolean)
+   */
+  public Stream<Record> parallelStream() {
+    return stream(true, true, true);
+  }
+
+  /**
+   * Get a {@link Stream} over the records in this file, optionally replacing nulls and entities.
+   * The stream must be closed to release the underlying files.
+   *
+   * Unquoted, newline terminated files in an ASCII compatible encoding are split into byte ranges aligned to line
+   * boundaries, so that parallel streams parse different parts of the file concurrently.
+   * Multiple files are streamed one after the other, in the order of their locations.
+   * Other files are read by a single iterator and only the processing of their records runs in parallel.
+   *
+   * @param parallel        if true a parallel stream is returned
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  public Stream<Record> stream(boolean parallel, boolean replaceNulls, boolean replaceEntities) {
+    boolean plainFiles;
+    try {
+      prepareForReading(getDataFiles(false));
+      plainFiles = arePlainFiles(getDataFiles(false));
+    } catch (IOException e) {
+      throw new UnsupportedArchiveException(e);
+    }
+    if (isUnquotedAsciiCompatible() && TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(getLinesTerminatedBy())
+        && plainFiles) {
+      List<Stream<Record>> streams = new ArrayList<>();
+      try {
+        for (File dataFile : getDataFiles(false)) {
+          MappedRecordSpliterator spliterator = new MappedRecordSpliterator(dataFile.toPath(),
+              Charset.forName(getEncoding()), getFieldsTerminatedByChar(), getIgnoreHeaderLines(), getId(),
+              getFields(), getRowType(), replaceNulls, replaceEntities, MappedRecordSpliterator.DEFAULT_MIN_SPLIT_SIZE);
+          streams.add(StreamSupport.stream(spliterator, parallel).onClose(() -> {
+            try {
+              spliterator.close();
+            } catch (IOException e) {
+              throw new IllegalStateException(e);
+            }
+          }));
+        }
+      } catch (IOException e) {
+        streams.forEach(Stream::close);
+        throw new UnsupportedArchiveException(e);
+      }
+      return concat(streams);
+    }
+
+    ClosableIterator<Record> it = iterator(replaceNulls, replaceEntities);
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), parallel)
+        .onClose(() -> {
+          try {
+            it.close();
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  /**
+   * Concatenates the streams pairwise, keeping the nesting of concatenated streams shallow.
+   */
+  private static Stream<Record> concat(List<Stream<Record>> streams) {
+    if (streams.size() == 1) {
+      return streams.get(0);
+    }
+    int middle = streams.size() / 2;
+    return Stream.concat(concat(streams.subList(0, middle)), concat(streams.subList(middle, streams.size())));
+  }
+
   /**
    * Build an iterator pointing to the sorted tabular file.
    * The sorted tabular file is also assumed to have been normalized.
@@ -578,10 +1261,108 @@ public class ArchiveFile implements Iterable<Record> {
    * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
    */
   protected ClosableIterator<Record> sortedIterator(boolean replaceNulls, boolean replaceEntities) throws IOException {
-    TabularDataFileReader<List<String>> tabularFileReader = TabularFiles.newTabularFileReader(getReader(true),
-            getFieldsTerminatedByChar(), TabularFileNormalizer.NORMALIZED_END_OF_LINE, getFieldsEnclosedBy(),
-            areHeaderLinesIncluded(), getLinesToSkipBeforeHeader());
-    return new DwcRecordIterator(tabularFileReader, getId(), getFields(), getRowType(), replaceNulls, replaceEntities);
+    return sortedIterator(null, replaceNulls, replaceEntities);
+  }
+
+  /**
+   * Build an iterator pointing to the sorted tabular file, only reading the columns mapped to the given terms.
+   * The sorted tabular file is also assumed to have been normalized.
+   *
+   * @param terms           the terms to read, or null to read all terms
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  protected ClosableIterator<Record> sortedIterator(Set<Term> terms, boolean replaceNulls, boolean replaceEntities)
+    throws IOException {
+    File sortedFile = cachedSortedFile;
+    if (sortedFile == null) {
+      return recordIterator(true, terms, replaceNulls, replaceEntities, false);
+    }
+
+    // the cached file is opened holding its lock, so it cannot be evicted before it is open
+    SortedFileCache cache = archive.getSortedFileCache();
+    for (int attempt = 0; attempt < MAX_CACHED_SORT_ATTEMPTS; attempt++) {
+      File file = sortedFile;
+      ClosableIterator<Record> iterator = FileLocks.locked(cache.lockFileOf(file),
+          () -> file.exists() ? recordIterator(true, terms, replaceNulls, replaceEntities, false) : null);
+      if (iterator != null) {
+        return iterator;
+      }
+      LOG.debug("Sorted file {} was evicted from the cache, sorting {} again", file, getFirstLocationFile());
+      normalizeAndSort();
+      sortedFile = cachedSortedFile;
+    }
+    throw new IOException("Sorted file of " + getFirstLocationFile() + " was evicted from the cache "
+        + MAX_CACHED_SORT_ATTEMPTS + " times before it could be read, the cache is too small");
+  }
+
+  private ClosableIterator<Record> recordIterator(boolean sorted, Set<Term> terms, boolean replaceNulls,
+                                                  boolean replaceEntities, boolean reuseRecords) throws IOException {
+    // sorted files are normalized to use NORMALIZED_END_OF_LINE
+    String linesTerminatedBy = sorted ? TabularFileNormalizer.NORMALIZED_END_OF_LINE : getLinesTerminatedBy();
+    List<File> dataFiles = getDataFiles(sorted);
+    prepareForReading(dataFiles);
+    if (dataFiles.size() == 1) {
+      return recordIterator(dataFiles.get(0), linesTerminatedBy, terms, replaceNulls, replaceEntities, reuseRecords);
+    }
+
+    // read multiple files one after the other, skipping the header lines of each file
+    List<SupplierWithIO<ClosableIterator<Record>>> iterators = new ArrayList<>();
+    for (File dataFile : dataFiles) {
+      iterators.add(() -> recordIterator(dataFile, linesTerminatedBy, terms, replaceNulls, replaceEntities,
+          reuseRecords));
+    }
+    return new ConcatenatingIterator<>(iterators);
+  }
+
+  private ClosableIterator<Record> recordIterator(File dataFile, String linesTerminatedBy, Set<Term> terms,
+                                                  boolean replaceNulls, boolean replaceEntities,
+                                                  boolean reuseRecords) throws IOException {
+    if (terms == null) {
+      if (TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(linesTerminatedBy) && isUnquotedAsciiCompatible()) {
+        // split on the raw bytes, values are only decoded when accessed
+        return new ByteRecordIterator(open(dataFile), Charset.forName(getEncoding()),
+            getFieldsTerminatedByChar(), getIgnoreHeaderLines(), getId(), getFields(), getRowType(),
+            replaceNulls, replaceEntities, reuseRecords);
+      }
+      TabularDataFileReader<List<String>> tabularFileReader = TabularFiles.newTabularFileReader(getReader(dataFile),
+          getFieldsTerminatedByChar(), linesTerminatedBy, getFieldsEnclosedBy(),
+          areHeaderLinesIncluded(), getLinesToSkipBeforeHeader());
+      return new DwcRecordIterator(tabularFileReader, getId(), getFields(), getRowType(), null,
+          replaceNulls, replaceEntities, reuseRecords);
+    }
+
+    Map<Term, ArchiveField> projectedFields = getFields(terms);
+    if (TabularFileNormalizer.NORMALIZED_END_OF_LINE.equals(linesTerminatedBy) && isUnquotedAsciiCompatible()) {
+      // values are only decoded when accessed
+      if (!arePlainFiles(Collections.singletonList(dataFile))) {
+        // read from the zip file or decompress
+        return new ByteRecordIterator(open(dataFile), Charset.forName(getEncoding()),
+            getFieldsTerminatedByChar(), getIgnoreHeaderLines(), getId(), projectedFields, getRowType(),
+            replaceNulls, replaceEntities, reuseRecords);
+      }
+      return mappedRecordIterator(dataFile, projectedFields, replaceNulls, replaceEntities, reuseRecords);
+    }
+
+    TabularDataFileReader<List<String>> tabularFileReader = TabularFiles.newTabularFileReader(getReader(dataFile),
+        getFieldsTerminatedByChar(), linesTerminatedBy, getFieldsEnclosedBy(),
+        areHeaderLinesIncluded(), getLinesToSkipBeforeHeader());
+    int[] columns = Stream.concat(projectedFields.values().stream(), Stream.ofNullable(getId()))
+        .map(ArchiveField::getIndex)
+        .filter(Objects::nonNull)
+        .mapToInt(Integer::intValue)
+        .distinct()
+        .toArray();
+    return new DwcRecordIterator(tabularFileReader, getId(), projectedFields, getRowType(), columns,
+        replaceNulls, replaceEntities, reuseRecords);
+  }
+
+  private ClosableIterator<Record> mappedRecordIterator(File dataFile, Map<Term, ArchiveField> fields,
+                                                        boolean replaceNulls, boolean replaceEntities,
+                                                        boolean reuseRecords) throws IOException {
+    return new MappedRecordIterator(dataFile.toPath(), Charset.forName(getEncoding()),
+        getFieldsTerminatedByChar(), getIgnoreHeaderLines(), getId(), fields, getRowType(),
+        replaceNulls, replaceEntities, reuseRecords, MappedRecordIterator.DEFAULT_WINDOW_SIZE);
   }
 
   public void setArchive(Archive archive) {
@@ -606,6 +1387,7 @@ public class ArchiveFile implements Iterable<Record> {
 
   public void setId(ArchiveField id) {
     this.id = id;
+    schema = null;
   }
 
   public void setIgnoreHeaderLines(Integer ignoreHeaderLines) {
@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Cheap fingerprint of a compressed archive, used to reuse a previous extraction (and the sorted files created next to
+ * the data files) as long as the compressed file has not changed.
+ *
+ * The fingerprint combines the size and modification time of the file with a checksum of the zip central directory,
+ * which lists the name, size and CRC of every entry. Files which are not zip files, e.g. tar.gz, use a checksum of
+ * their last bytes instead.
+ * The fingerprint of an extraction is stored in a hidden file within the destination, written once the extraction
+ * is complete. Extractions which only contain some of the files of a zip file, each extracted completely, are marked
+ * with a {@link #partial(String)} fingerprint.
+ */
+final class ArchiveFingerprint {
+
+  static final String FINGERPRINT_FN = ".dwca-fingerprint";
+
+  // the end of central directory record is 22 bytes followed by a comment of at most 64KB
+  private static final int TAIL_SIZE = 22 + 0xFFFF;
+  private static final int EOCD_SIGNATURE = 0x06054b50;
+
+  private ArchiveFingerprint() {}
+
+  /**
+   * @return the fingerprint of the compressed file
+   */
+  static String of(Path compressed) throws IOException {
+    try (FileChannel channel = FileChannel.open(compressed, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer tail = read(channel, Math.max(0, size - TAIL_SIZE), (int) Math.min(size, TAIL_SIZE));
+
+      CRC32C crc = new CRC32C();
+      int eocd = endOfCentralDirectory(tail);
+      long directorySize = eocd < 0 ? -1 : Integer.toUnsignedLong(tail.getInt(eocd + 12));
+      long directoryOffset = eocd < 0 ? -1 : Integer.toUnsignedLong(tail.getInt(eocd + 16));
+      if (eocd >= 0 && directoryOffset + directorySize <= size && directorySize <= Integer.MAX_VALUE) {
+        crc.update(read(channel, directoryOffset, (int) directorySize));
+      } else {
+        // not a zip file, or a zip64 file with an unknown central directory location
+        tail.rewind();
+        crc.update(tail);
+      }
+
+      return size + ":" + Files.getLastModifiedTime(compressed).toMillis() + ":" + Long.toHexString(crc.getValue());
+    }
+  }
+
+  /**
+   * @return the fingerprint marking a partial extraction of a file, which only contains some files of the archive
+   */
+  static String partial(String fingerprint) {
+    return "partial:" + fingerprint;
+  }
+
+  /**
+   * @return true if the destination contains a complete extraction of a file with the given fingerprint
+   */
+  static boolean matches(Path destination, String fingerprint) throws IOException {
+    Path file = destination.resolve(FINGERPRINT_FN);
+    return Files.isRegularFile(file) && fingerprint.equals(Files.readString(file, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Marks the destination as a complete extraction of a file with the given fingerprint.
+   */
+  static void write(Path destination, String fingerprint) throws IOException {
+    Files.writeString(destination.resolve(FINGERPRINT_FN), fingerprint, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the position of the end of central directory record within the tail of the file, or -1 if there is none
+   */
+  private static int endOfCentralDirectory(ByteBuffer tail) {
+    for (int i = tail.limit() - 22; i >= 0; i--) {
+      if (tail.getInt(i) == EOCD_SIGNATURE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+      // read until the buffer is full
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
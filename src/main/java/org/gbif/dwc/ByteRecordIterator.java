@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.RecordSchema;
+import org.gbif.dwc.terms.Term;
+import org.gbif.utils.file.ClosableIterator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * {@link ClosableIterator} of {@link Record} splitting an unquoted, newline terminated stream on its raw bytes.
+ * The delimiter and line terminators are single ASCII bytes, which never occur within a multibyte character of an
+ * ASCII compatible encoding such as UTF-8, so lines are split without decoding them.
+ * Records keep the bytes of their line and only decode the columns which are accessed.
+ *
+ * Like the tabular file reader, carriage returns also terminate a line and empty lines are skipped.
+ *
+ * If records are reused, the same record instance and line buffer are refilled for every line, so a record stays
+ * valid only until the next call to {@link #hasNext()} or {@link #next()}.
+ */
+class ByteRecordIterator implements ClosableIterator<Record> {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final InputStream in;
+  private final Charset charset;
+  private final byte delimiter;
+  private final long delimiters;
+
+  private final ArchiveField id;
+  private final Map<Term, ArchiveField> fields;
+  private final RecordSchema schema;
+  private final Term rowType;
+  private final boolean replaceNulls;
+  private final boolean replaceEntities;
+  // the single record refilled for every line, or null if records are not reused
+  private final MappedRecord reusedRecord;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private byte[] line = new byte[256];
+  private ByteBuffer wrappedLine = ByteBuffer.wrap(line);
+  private int[] offsets = new int[32];
+
+  private Record nextRecord;
+  private boolean end = false;
+
+  /**
+   * @param in              the stream to read, closed with this iterator
+   * @param replaceNulls    if true record values will have literal nulls replaced with NULL.
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   * @param reuseRecords    if true the same record instance is returned for every line
+   */
+  ByteRecordIterator(InputStream in, Charset charset, char delimiter, int headerLines, ArchiveField id,
+                     Map<Term, ArchiveField> fields, Term rowType, boolean replaceNulls, boolean replaceEntities,
+                     boolean reuseRecords) throws IOException {
+    if (delimiter > 127) {
+      throw new IllegalArgumentException("Delimiter must be a single byte ASCII character");
+    }
+    this.in = in;
+    this.charset = charset;
+    this.delimiter = (byte) delimiter;
+    this.delimiters = ByteScanner.broadcast(this.delimiter);
+    this.id = id;
+    this.fields = fields;
+    this.schema = RecordSchema.of(id, fields);
+    this.rowType = rowType;
+    this.replaceNulls = replaceNulls;
+    this.replaceEntities = replaceEntities;
+    this.reusedRecord = reuseRecords
+      ? new MappedRecord(schema, rowType, replaceNulls, replaceEntities, wrappedLine, charset, offsets, 0)
+      : null;
+
+    // header lines are skipped as they are, including empty ones, a "\r\n" ends a single header line
+    for (int i = 0; i < headerLines; i++) {
+      if (readLine() < 0) {
+        break;
+      }
+      if (pos > 0 && buffer[pos - 1] == '\r' && (pos < limit || fill()) && buffer[pos] == '\n') {
+        pos++;
+      }
+    }
+  }
+
+  /**
+   * @return false at the end of the stream
+   */
+  private boolean fill() throws IOException {
+    int read = in.read(buffer);
+    while (read == 0) {
+      read = in.read(buffer);
+    }
+    pos = 0;
+    limit = Math.max(read, 0);
+    return read > 0;
+  }
+
+  /**
+   * Copies the next line into the line buffer, without its terminator.
+   *
+   * @return the length of the line, or -1 at the end of the stream
+   */
+  private int readLine() throws IOException {
+    int length = 0;
+    boolean read = false;
+    while (true) {
+      if (pos == limit && !fill()) {
+        return read ? length : -1;
+      }
+      read = true;
+      int start = pos;
+      int eol = ByteScanner.indexOfLineEnd(buffer, start, limit);
+      int chunk = (eol < 0 ? limit : eol) - start;
+      if (length + chunk > line.length) {
+        line = Arrays.copyOf(line, Math.max(line.length * 2, length + chunk));
+        wrappedLine = ByteBuffer.wrap(line);
+      }
+      System.arraycopy(buffer, start, line, length, chunk);
+      length += chunk;
+      if (eol >= 0) {
+        pos = eol + 1;
+        return length;
+      }
+      pos = limit;
+    }
+  }
+
+  /**
+   * @return the next non-empty line as a record, or null at the end of the stream
+   */
+  private Record readRecord() throws IOException {
+    int length;
+    do {
+      length = readLine();
+      if (length < 0) {
+        return null;
+      }
+    } while (length == 0);
+
+    int columns = split(length);
+    if (reusedRecord != null) {
+      reusedRecord.setLine(wrappedLine, offsets, columns);
+      return reusedRecord;
+    }
+    return new MappedRecord(schema, rowType, replaceNulls, replaceEntities,
+      ByteBuffer.wrap(Arrays.copyOf(line, length)), charset, Arrays.copyOf(offsets, columns + 1), columns);
+  }
+
+  /**
+   * Fills the offsets of the line's columns.
+   *
+   * @return the number of columns
+   */
+  private int split(int length) {
+    int n = 0;
+    offsets[n++] = 0;
+    int i = ByteScanner.indexOf(line, 0, length, delimiter, delimiters);
+    while (i >= 0) {
+      if (n == offsets.length) {
+        offsets = Arrays.copyOf(offsets, n * 2);
+      }
+      offsets[n++] = i + 1;
+      i = ByteScanner.indexOf(line, i + 1, length, delimiter, delimiters);
+    }
+    if (n == offsets.length) {
+      offsets = Arrays.copyOf(offsets, n + 1);
+    }
+    offsets[n] = length + 1;
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    end = true;
+    nextRecord = null;
+    in.close();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextRecord != null) {
+      return true;
+    }
+    if (end) {
+      return false;
+    }
+    try {
+      nextRecord = readRecord();
+    } catch (IOException e) {
+      try {
+        close();
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      throw new IllegalStateException(e);
+    }
+    return nextRecord != null;
+  }
+
+  @Override
+  public Record next() {
+    Record record = null;
+    if (hasNext()) {
+      record = nextRecord;
+      nextRecord = null;
+    } else {
+      end = true;
+    }
+    return record;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ByteRecordIterator %s, %s, %s, %s, %s", id, fields, rowType, replaceNulls, replaceEntities);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds delimiter and line terminator bytes eight bytes at a time, reading a long per step and testing all of its
+ * bytes at once with bitwise arithmetic (SIMD within a register).
+ * The remaining bytes at the end of a range are tested one by one.
+ *
+ * Buffers must use little endian byte order, so that the lowest matching byte of a long is the first one.
+ */
+final class ByteScanner {
+
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long NEWLINES = broadcast((byte) '\n');
+  private static final long CARRIAGE_RETURNS = broadcast((byte) '\r');
+
+  private ByteScanner() {
+  }
+
+  /**
+   * @return the byte repeated in all eight bytes of a long
+   */
+  static long broadcast(byte b) {
+    return 0x0101010101010101L * (b & 0xFF);
+  }
+
+  /**
+   * @return a long with the high bit set in exactly those bytes of the word which are zero
+   */
+  private static long zeroBytes(long word) {
+    long t = (word & LOW_BITS) + LOW_BITS;
+    return ~(t | word | LOW_BITS);
+  }
+
+  /**
+   * @return the byte index within a long of the lowest high bit of a match
+   */
+  private static int firstByte(long matches) {
+    return Long.numberOfTrailingZeros(matches) >>> 3;
+  }
+
+  /**
+   * @param pattern the byte to find, {@link #broadcast(byte) broadcast} to a long
+   * @return the index of the first byte equal to b within [from, to), or -1
+   */
+  static int indexOf(byte[] bytes, int from, int to, byte b, long pattern) {
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      long matches = zeroBytes((long) LONGS.get(bytes, i) ^ pattern);
+      if (matches != 0) {
+        return i + firstByte(matches);
+      }
+    }
+    for (; i < to; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index of the first newline or carriage return within [from, to), or -1
+   */
+  static int indexOfLineEnd(byte[] bytes, int from, int to) {
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      long word = (long) LONGS.get(bytes, i);
+      long matches = zeroBytes(word ^ NEWLINES) | zeroBytes(word ^ CARRIAGE_RETURNS);
+      if (matches != 0) {
+        return i + firstByte(matches);
+      }
+    }
+    for (; i < to; i++) {
+      if (bytes[i] == '\n' || bytes[i] == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param pattern the byte to find, {@link #broadcast(byte) broadcast} to a long
+   * @return the index of the first byte equal to b within [from, to), or -1
+   */
+  static int indexOf(ByteBuffer buffer, int from, int to, byte b, long pattern) {
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      long matches = zeroBytes(buffer.getLong(i) ^ pattern);
+      if (matches != 0) {
+        return i + firstByte(matches);
+      }
+    }
+    for (; i < to; i++) {
+      if (buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index of the first newline or carriage return within [from, to), or -1
+   */
+  static int indexOfLineEnd(ByteBuffer buffer, int from, int to) {
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      long word = buffer.getLong(i);
+      long matches = zeroBytes(word ^ NEWLINES) | zeroBytes(word ^ CARRIAGE_RETURNS);
+      if (matches != 0) {
+        return i + firstByte(matches);
+      }
+    }
+    for (; i < to; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.utils.file.ClosableIterator;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link ClosableIterator} reading several iterators one after the other.
+ * Each iterator is only opened once the previous one is exhausted, and closed before the next one is opened.
+ */
+class ConcatenatingIterator<T> implements ClosableIterator<T> {
+
+  private final Iterator<SupplierWithIO<ClosableIterator<T>>> suppliers;
+  private ClosableIterator<T> current;
+  private boolean end = false;
+
+  ConcatenatingIterator(List<SupplierWithIO<ClosableIterator<T>>> suppliers) {
+    this.suppliers = suppliers.iterator();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (end) {
+      return false;
+    }
+    try {
+      while (current == null || !current.hasNext()) {
+        if (current != null) {
+          current.close();
+          current = null;
+        }
+        if (!suppliers.hasNext()) {
+          end = true;
+          return false;
+        }
+        current = suppliers.next().get();
+      }
+    } catch (Exception e) {
+      end = true;
+      throw new IllegalStateException(e);
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    return hasNext() ? current.next() : null;
+  }
+
+  @Override
+  public void close() throws Exception {
+    end = true;
+    if (current != null) {
+      current.close();
+      current = null;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Manifest of the content of the data files a derived file, e.g. the sorted file, was created from.
+ * The manifest records the size and a CRC32C checksum of every data file, so the derived file is only created again
+ * if the content of the data files changed, regardless of their modification times which are often reset by copies,
+ * zip extraction or container image layers.
+ *
+ * The checksum is only calculated if the sizes of all data files match the manifest.
+ */
+final class DataFileManifest {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private DataFileManifest() {}
+
+  /**
+   * @return the manifest file of a file derived from data files
+   */
+  static File manifestFile(File derived) {
+    return new File(derived.getParentFile(), derived.getName() + "-manifest");
+  }
+
+  /**
+   * @return the manifest of the data files, one line with the size, checksum and name of each file
+   */
+  static String of(List<File> dataFiles) throws IOException {
+    StringBuilder manifest = new StringBuilder();
+    for (File f : dataFiles) {
+      manifest.append(f.length()).append('\t').append(checksum(f)).append('\t').append(f.getName()).append('\n');
+    }
+    return manifest.toString();
+  }
+
+  /**
+   * @return true if the manifest of the derived file exists and matches the content of the data files
+   */
+  static boolean matches(File derived, List<File> dataFiles) throws IOException {
+    File manifestFile = manifestFile(derived);
+    if (!derived.exists() || !manifestFile.isFile()) {
+      return false;
+    }
+    String[] lines = Files.readString(manifestFile.toPath(), StandardCharsets.UTF_8).split("\n");
+    if (lines.length != dataFiles.size()) {
+      return false;
+    }
+    // compare the sizes of all files before reading any content
+    for (int i = 0; i < lines.length; i++) {
+      if (!lines[i].startsWith(dataFiles.get(i).length() + "\t")) {
+        return false;
+      }
+    }
+    return of(dataFiles).equals(String.join("\n", lines) + "\n");
+  }
+
+  /**
+   * Writes the manifest of the derived file.
+   *
+   * @param manifest the manifest of the data files the derived file was created from
+   */
+  static void write(File derived, String manifest) throws IOException {
+    File manifestFile = manifestFile(derived);
+    File tmp = new File(manifestFile.getParentFile(), manifestFile.getName() + "_tmp");
+    Files.writeString(tmp.toPath(), manifest, StandardCharsets.UTF_8);
+    Files.move(tmp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Deletes the manifest of the derived file, e.g. before the derived file is replaced.
+   */
+  static void delete(File derived) throws IOException {
+    Files.deleteIfExists(manifestFile(derived).toPath());
+  }
+
+  private static String checksum(File f) throws IOException {
+    CRC32C crc = new CRC32C();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(f.toPath())) {
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        crc.update(buffer, 0, read);
+      }
+    }
+    return Long.toHexString(crc.getValue());
+  }
+}
@@ -58,6 +58,8 @@ public class DwcFiles {
   /**
    * Build an {@link Archive} from a compressed file. The compressed file will be extracted in the provided directory.
    * The supported compressions are zip and gzip.
+   * A previous extraction of the same, unchanged file into the destination is reused, together with the sorted data
+   * files created when iterating it.
    *
    * @param dwcaLocation the location of a compressed Darwin Core Archive
    * @param destination  the destination of the uncompressed content.
@@ -73,4 +75,50 @@ public class DwcFiles {
     archive.validate();
     return archive;
   }
+
+  /**
+   * Build an {@link Archive} from a compressed file, optionally extracting the data files of a zip file lazily.
+   * Lazily extracted archives only extract the meta descriptor, metadata and other files which are not data files up
+   * front. Each core or extension data file is extracted the first time it is read or sorted, so data files which are
+   * never read are never extracted.
+   *
+   * @param dwcaLocation the location of a compressed Darwin Core Archive
+   * @param destination  the destination of the uncompressed content.
+   * @param lazy         if true data files of a zip file are extracted when they are first read
+   *
+   * @return new {@link Archive}, never null. But, the {@link Archive} can be empty (e.g. no core)
+   *
+   * @throws IOException if the compressed file cannot be read or uncompressed
+   * @throws UnsupportedArchiveException if the content is not a valid Darwin Core Archive
+   * @see #fromCompressed(Path, Path)
+   */
+  public static Archive fromCompressed(Path dwcaLocation, Path destination, boolean lazy)
+    throws IOException, UnsupportedArchiveException {
+    // delegate to InternalDwcFileFactory
+    Archive archive = InternalDwcFileFactory.fromCompressed(dwcaLocation, destination, lazy);
+    archive.validate();
+    return archive;
+  }
+
+  /**
+   * Build an {@link Archive} reading a zip file directly, without extracting it.
+   * Data files are streamed from the zip file, and only extracted into the work directory if they need to be sorted,
+   * e.g. to iterate star records of an archive with extensions.
+   * Archives without a meta descriptor are extracted into the work directory.
+   *
+   * @param dwcaLocation  the location of a zipped Darwin Core Archive
+   * @param workDirectory the directory to extract or sort data files in, existing content of another or changed zip
+   *                      file is deleted
+   *
+   * @return new {@link Archive}, never null. But, the {@link Archive} can be empty (e.g. no core)
+   *
+   * @throws IOException if the zip file cannot be read
+   * @throws UnsupportedArchiveException if the file is not a zip file or not a valid Darwin Core Archive
+   */
+  public static Archive fromZip(Path dwcaLocation, Path workDirectory) throws IOException, UnsupportedArchiveException {
+    // delegate to InternalDwcFileFactory
+    Archive archive = InternalDwcFileFactory.fromZip(dwcaLocation, workDirectory);
+    archive.validate();
+    return archive;
+  }
 }
@@ -15,17 +15,22 @@ package org.gbif.dwc;
 
 import org.gbif.dwc.record.Record;
 import org.gbif.dwc.record.RecordImpl;
+import org.gbif.dwc.record.RecordSchema;
 import org.gbif.dwc.terms.Term;
 import org.gbif.utils.file.ClosableIterator;
 import org.gbif.utils.file.tabular.TabularDataFileReader;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
  * {@link ClosableIterator} of {@link Record}
+ *
+ * If records are reused, the same record instance and row array are refilled for every line, so a record stays valid
+ * only until the next call to {@link #next()}.
  */
 class DwcRecordIterator implements ClosableIterator<Record> {
 
@@ -33,9 +38,16 @@ class DwcRecordIterator implements ClosableIterator<Record> {
 
   private final ArchiveField id;
   private final Map<Term, ArchiveField> fields;
+  // compiled once and shared by all records
+  private final RecordSchema schema;
   private final Term rowType;
+  // columns to keep, or null for all columns
+  private final int[] columns;
   private final boolean replaceEntities;
   private final boolean replaceNulls;
+  // the single record refilled for every line, or null if records are not reused
+  private final RecordImpl reusedRecord;
+  private String[] reusedRow = new String[0];
 
   private List<String> nextLine;
   private boolean end = false;
@@ -46,12 +58,27 @@ class DwcRecordIterator implements ClosableIterator<Record> {
    */
   DwcRecordIterator(TabularDataFileReader<List<String>> tabularFileReader, ArchiveField id, Map<Term,
           ArchiveField> fields, Term rowType, boolean replaceNulls, boolean replaceEntities) {
+    this(tabularFileReader, id, fields, rowType, null, replaceNulls, replaceEntities, false);
+  }
+
+  /**
+   * @param columns         indexes of the columns to keep in the records, or null to keep all columns
+   * @param replaceNulls    if true record values will have literal nulls replaced with NULL.
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   * @param reuseRecords    if true the same record instance is returned for every line
+   */
+  DwcRecordIterator(TabularDataFileReader<List<String>> tabularFileReader, ArchiveField id, Map<Term,
+          ArchiveField> fields, Term rowType, int[] columns, boolean replaceNulls, boolean replaceEntities,
+          boolean reuseRecords) {
     this.tabularFileReader = tabularFileReader;
     this.id = id;
     this.fields = fields;
+    this.schema = RecordSchema.of(id, fields);
     this.rowType = rowType;
+    this.columns = columns;
     this.replaceNulls = replaceNulls;
     this.replaceEntities = replaceEntities;
+    this.reusedRecord = reuseRecords ? new RecordImpl(schema, rowType, replaceNulls, replaceEntities) : null;
   }
 
   @Override
@@ -89,10 +116,15 @@ class DwcRecordIterator implements ClosableIterator<Record> {
   public Record next() {
     RecordImpl record;
     if (hasNext()) {
-      record = new RecordImpl(id, fields, rowType, replaceNulls, replaceEntities);
       List<String> currentLine = nextLine;
       nextLine = null;
-      record.setRow(currentLine.toArray(String[]::new));
+      if (reusedRecord != null) {
+        record = reusedRecord;
+        record.setRow(refill(currentLine));
+      } else {
+        record = new RecordImpl(schema, rowType, replaceNulls, replaceEntities);
+        record.setRow(columns == null ? currentLine.toArray(String[]::new) : project(currentLine));
+      }
     } else {
       end = true;
       record = null;
@@ -100,6 +132,43 @@ class DwcRecordIterator implements ClosableIterator<Record> {
     return record;
   }
 
+  /**
+   * Copies the projected columns only, leaving all other columns null.
+   */
+  private String[] project(List<String> line) {
+    String[] row = new String[line.size()];
+    for (int column : columns) {
+      if (column < row.length) {
+        row[column] = line.get(column);
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Copies the line, or only its projected columns, into the reused row.
+   * The row only grows, columns beyond the end of the line are null.
+   */
+  private String[] refill(List<String> line) {
+    if (reusedRow.length < line.size()) {
+      reusedRow = new String[line.size()];
+    } else {
+      Arrays.fill(reusedRow, null);
+    }
+    if (columns == null) {
+      for (int i = 0; i < line.size(); i++) {
+        reusedRow[i] = line.get(i);
+      }
+    } else {
+      for (int column : columns) {
+        if (column < line.size()) {
+          reusedRow[column] = line.get(column);
+        }
+      }
+    }
+    return reusedRow;
+  }
+
   @Override
   public String toString() {
     return String.format("DwcRecordIterator %s, %s, %s, %s, %s, %s",
@@ -13,6 +13,7 @@
  */
 package org.gbif.dwc;
 
+import org.gbif.dwc.record.RecordSchema;
 import org.gbif.dwc.terms.Term;
 
 import java.io.File;
@@ -129,9 +130,10 @@ public class DwcaStreamWriter implements AutoCloseable {
     TabWriter writer = TabWriter.fromFile(dataFile);
     if (useHeaders){
       String[] header = new String[maxMapping+1];
-      mapping.entrySet().stream().sorted(Map.Entry.comparingByValue()).forEach((e)->{
-        header[e.getValue()] = e.getKey().simpleName();
-      });
+      RecordSchema schema = af.getSchema();
+      for (Term term : schema.terms()) {
+        header[schema.index(schema.slot(term))] = term.simpleName();
+      }
       if (coreIdTerm != null) {
         header[0] = coreIdTerm.simpleName();
       }
@@ -14,6 +14,7 @@
 package org.gbif.dwc;
 
 import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.RecordSchema;
 import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
@@ -62,6 +63,8 @@ public class DwcaWriter {
   private final Map<Term, String> dataFileNames = new HashMap<>();
   // key=rowType, value=columns
   private final Map<Term, List<Term>> terms = new HashMap<>();
+  // compiled column lookup per rowType, dropped whenever new terms are added
+  private final Map<Term, RecordSchema> schemas = new HashMap<>();
   // key=rowType, value=default values per column
   private final Map<Term, Map<Term, String>> defaultValues = new HashMap<>();
   private final Map<Term, Map<Term, String>> multiValueDelimiter = new HashMap<>();
@@ -170,16 +173,33 @@ public class DwcaWriter {
       LOG.warn("Adding an {} extension record to a core without an Id! Skip this record", rowType);
 
     } else {
+      RecordSchema schema = schema(rowType);
       String[] row = new String[columns.size() + 1];
       row[0] = coreId;
       for (Map.Entry<Term, String> conceptTermStringEntry : rowMap.entrySet()) {
-        int column = 1 + columns.indexOf(conceptTermStringEntry.getKey());
-        row[column] = conceptTermStringEntry.getValue();
+        int slot = schema.slot(conceptTermStringEntry.getKey());
+        if (slot >= 0) {
+          row[schema.index(slot)] = conceptTermStringEntry.getValue();
+        }
       }
       writer.write(row);
     }
   }
 
+  /**
+   * @return the schema of the current columns of the rowType, placing the first term in column 1 after the id
+   */
+  private RecordSchema schema(Term rowType) {
+    return schemas.computeIfAbsent(rowType, rt -> {
+      List<Term> columns = terms.get(rt);
+      List<ArchiveField> fields = new ArrayList<>(columns.size());
+      for (int i = 0; i < columns.size(); i++) {
+        fields.add(buildArchiveField(i + 1, columns.get(i)));
+      }
+      return RecordSchema.of(null, fields);
+    });
+  }
+
   private void writeHeader(TabWriter writer, Term rowType, List<Term> columns) throws IOException {
     int idx = 0;
     String[] row = new String[columns.size() + 1];
@@ -222,12 +242,12 @@ public class DwcaWriter {
       throw new IllegalStateException("You cannot add a term that was specified as coreId term");
     }
 
-    List<Term> coreTerms = terms.get(coreRowType);
-    if (!coreTerms.contains(term)) {
+    if (schema(coreRowType).slot(term) < 0) {
       if (useHeaders && recordNum > 1) {
         throw new IllegalStateException("You cannot add new terms after the first row when headers are enabled");
       }
-      coreTerms.add(term);
+      terms.get(coreRowType).add(term);
+      schemas.remove(coreRowType);
     }
     try {
       coreRow.put(term, value);
@@ -353,12 +373,14 @@ public class DwcaWriter {
     // make sure we know all terms
     List<Term> knownTerms = terms.get(rowType);
     final boolean isFirst = knownTerms.isEmpty();
+    RecordSchema schema = schema(rowType);
     for (Term term : row.keySet()) {
-      if (!knownTerms.contains(term)) {
+      if (schema.slot(term) < 0) {
         if (useHeaders && !isFirst) {
           throw new IllegalStateException("You cannot add new terms after the first row when headers are enabled");
         }
         knownTerms.add(term);
+        schemas.remove(rowType);
       }
     }
 
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.Term;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Finds the extension records of a core record by its id, to join extensions to core records which are not sorted.
+ */
+interface ExtensionLookup extends Closeable {
+
+  /**
+   * @return the row type of the extension
+   */
+  Term getRowType();
+
+  /**
+   * @return the extension records of the core id, in the order of the data files
+   */
+  List<Record> get(String coreId) throws IOException;
+}
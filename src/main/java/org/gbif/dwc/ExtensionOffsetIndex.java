@@ -0,0 +1,316 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.CleanUtils;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.Term;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Index of the lines of unsorted extension data files by their core id, to join extension records to core records
+ * without sorting or rewriting the extension files. The index is built in a single sequential pass, the lines of a
+ * core id are then read with positional reads.
+ *
+ * Only the position and length of each line are kept, in primitive arrays: an open addressing hash table maps the
+ * 64 bit hash of each core id to the first of its lines, which are chained in the order of the data files.
+ * Lines are verified to have the requested core id when they are read, so colliding hashes don't mix records.
+ *
+ * The data files must be {@link ArchiveFile#isIndexable() indexable}, so lines can be split on their raw bytes like
+ * {@link ByteRecordIterator} does.
+ */
+final class ExtensionOffsetIndex implements ExtensionLookup {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Term rowType;
+  private final Charset charset;
+  private final byte delimiter;
+  private final long delimiters;
+  private final boolean replaceNulls;
+  private final boolean replaceEntities;
+  // reads the indexed lines, or null if the index is only built to be written
+  private PositionalRecordReader reader;
+
+  // hash table of core ids: hash and first line + 1, or 0 for empty slots
+  private long[] slotHashes = new long[1024];
+  private int[] slotFirst = new int[1024];
+  private int[] slotLast = new int[1024];
+  private int slots;
+
+  // lines: position within all data files, length and the next line with the same core id hash + 1, or 0
+  private long[] positions = new long[1024];
+  private int[] lengths = new int[1024];
+  private int[] next = new int[1024];
+  private int lines;
+
+  private ExtensionOffsetIndex(ArchiveFile archiveFile, boolean replaceNulls, boolean replaceEntities) {
+    this.rowType = archiveFile.getRowType();
+    this.charset = Charset.forName(archiveFile.getEncoding());
+    this.delimiter = (byte) archiveFile.getFieldsTerminatedByChar();
+    this.delimiters = ByteScanner.broadcast(delimiter);
+    this.replaceNulls = replaceNulls;
+    this.replaceEntities = replaceEntities;
+  }
+
+  /**
+   * Indexes the lines of the extension by their core id, to look up records.
+   * Core ids are cleaned like the ids of the records the lines are read as, lines without a core id are ignored.
+   *
+   * @param extension       an extension which is {@link ArchiveFile#isIndexable() indexable}
+   * @param terms           the terms to read, or null to read all terms
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  static ExtensionOffsetIndex build(ArchiveFile extension, Set<Term> terms, boolean replaceNulls,
+                                    boolean replaceEntities) throws IOException {
+    ExtensionOffsetIndex index = scan(extension, replaceNulls, replaceEntities);
+    index.reader = new PositionalRecordReader(extension, terms, replaceNulls, replaceEntities);
+    return index;
+  }
+
+  /**
+   * Indexes the lines of the data files by their id, without opening them for lookups.
+   *
+   * @see #build(ArchiveFile, Set, boolean, boolean)
+   */
+  static ExtensionOffsetIndex scan(ArchiveFile archiveFile, boolean replaceNulls, boolean replaceEntities)
+      throws IOException {
+    ExtensionOffsetIndex index = new ExtensionOffsetIndex(archiveFile, replaceNulls, replaceEntities);
+    List<File> files = archiveFile.getLocationFiles();
+    long[] fileStarts = PositionalRecordReader.fileStarts(files);
+    for (int f = 0; f < files.size(); f++) {
+      index.indexFile(files.get(f), fileStarts[f], archiveFile.getIgnoreHeaderLines(), archiveFile.getId().getIndex());
+    }
+    // only needed to append lines
+    index.slotLast = null;
+    return index;
+  }
+
+  /**
+   * Reads the file line by line, splitting lines on newlines and carriage returns and skipping empty lines.
+   */
+  private void indexFile(File file, long start, int headerLines, int idColumn) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    byte[] line = new byte[256];
+    int length = 0;
+    long lineStart = 0;
+    long position = 0;
+    int skip = headerLines;
+    // a header line ended by a carriage return, which is followed by a newline if it is terminated by "\r\n"
+    boolean skipNewline = false;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE)) {
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        int pos = 0;
+        while (pos < read) {
+          if (skipNewline) {
+            skipNewline = false;
+            if (buffer[pos] == '\n') {
+              pos++;
+              position++;
+              lineStart = position;
+              continue;
+            }
+          }
+          int eol = ByteScanner.indexOfLineEnd(buffer, pos, read);
+          int chunk = (eol < 0 ? read : eol) - pos;
+          if (length + chunk > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + chunk));
+          }
+          System.arraycopy(buffer, pos, line, length, chunk);
+          length += chunk;
+          position += chunk;
+          if (eol < 0) {
+            break;
+          }
+          if (skip > 0) {
+            skip--;
+            skipNewline = buffer[eol] == '\r';
+          } else if (length > 0) {
+            add(line, length, start + lineStart, idColumn);
+          }
+          pos = eol + 1;
+          position++;
+          lineStart = position;
+          length = 0;
+        }
+      }
+      if (length > 0 && skip == 0) {
+        add(line, length, start + lineStart, idColumn);
+      }
+    }
+  }
+
+  private void add(byte[] line, int length, long position, int idColumn) {
+    String id = id(line, length, idColumn);
+    if (StringUtils.isBlank(id)) {
+      return;
+    }
+    if (lines == positions.length) {
+      positions = Arrays.copyOf(positions, lines * 2);
+      lengths = Arrays.copyOf(lengths, lines * 2);
+      next = Arrays.copyOf(next, lines * 2);
+    }
+    positions[lines] = position;
+    lengths[lines] = length;
+    next[lines] = 0;
+
+    long hash = hash(id);
+    int slot = slot(hash);
+    if (slotFirst[slot] == 0) {
+      slotHashes[slot] = hash;
+      slotFirst[slot] = lines + 1;
+      slots++;
+    } else {
+      next[slotLast[slot] - 1] = lines + 1;
+    }
+    slotLast[slot] = lines + 1;
+    lines++;
+
+    if (slots * 2 > slotHashes.length) {
+      rehash();
+    }
+  }
+
+  /**
+   * @return the cleaned value of the id column, or null if the line has fewer columns
+   */
+  private String id(byte[] line, int length, int idColumn) {
+    int start = 0;
+    for (int c = 0; c < idColumn; c++) {
+      int i = ByteScanner.indexOf(line, start, length, delimiter, delimiters);
+      if (i < 0) {
+        return null;
+      }
+      start = i + 1;
+    }
+    int end = ByteScanner.indexOf(line, start, length, delimiter, delimiters);
+    String id = new String(line, start, (end < 0 ? length : end) - start, charset);
+    return CleanUtils.clean(id, replaceNulls, replaceEntities);
+  }
+
+  /**
+   * @return the slot of the hash, or the empty slot to put it into
+   */
+  private int slot(long hash) {
+    int mask = slotHashes.length - 1;
+    int slot = (int) hash & mask;
+    while (slotFirst[slot] != 0 && slotHashes[slot] != hash) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash() {
+    long[] oldHashes = slotHashes;
+    int[] oldFirst = slotFirst;
+    int[] oldLast = slotLast;
+    slotHashes = new long[oldHashes.length * 2];
+    slotFirst = new int[oldHashes.length * 2];
+    slotLast = new int[oldHashes.length * 2];
+    for (int i = 0; i < oldHashes.length; i++) {
+      if (oldFirst[i] != 0) {
+        int slot = slot(oldHashes[i]);
+        slotHashes[slot] = oldHashes[i];
+        slotFirst[slot] = oldFirst[i];
+        slotLast[slot] = oldLast[i];
+      }
+    }
+  }
+
+  /**
+   * 64 bit hash of the characters of the id, mixed with the finalizer of MurmurHash3.
+   */
+  static long hash(String id) {
+    long h = 1125899906842597L;
+    for (int i = 0; i < id.length(); i++) {
+      h = 31 * h + id.charAt(i);
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * @return the number of indexed lines
+   */
+  int size() {
+    return lines;
+  }
+
+  /**
+   * Visits the lines sorted by the hash of their id, and lines of the same id in the order of the data files.
+   */
+  void visitSorted(IdIndexFile.LineVisitor visitor) throws IOException {
+    long[] hashes = new long[slots];
+    int n = 0;
+    for (int i = 0; i < slotHashes.length; i++) {
+      if (slotFirst[i] != 0) {
+        hashes[n++] = slotHashes[i];
+      }
+    }
+    Arrays.sort(hashes);
+    for (long hash : hashes) {
+      for (int l = slotFirst[slot(hash)]; l != 0; l = next[l - 1]) {
+        visitor.visit(hash, positions[l - 1], lengths[l - 1]);
+      }
+    }
+  }
+
+  @Override
+  public Term getRowType() {
+    return rowType;
+  }
+
+  @Override
+  public List<Record> get(String coreId) throws IOException {
+    long hash = hash(coreId);
+    int slot = slot(hash);
+    if (slotFirst[slot] == 0) {
+      return Collections.emptyList();
+    }
+    List<Record> records = new ArrayList<>();
+    for (int l = slotFirst[slot]; l != 0; l = next[l - 1]) {
+      Record record = reader.read(positions[l - 1], lengths[l - 1]);
+      if (coreId.equals(record.id())) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.RecordImpl;
+import org.gbif.dwc.record.RecordSchema;
+import org.gbif.dwc.terms.Term;
+import org.gbif.utils.file.ClosableIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The rows of an extension data file held in memory by their core id, to join extension records to core records
+ * without sorting the data files.
+ *
+ * Rows are kept as arrays of their cleaned column values, only holding the columns of the requested terms and the id.
+ * Core ids with a single row map to the row itself, without a list.
+ */
+final class ExtensionRows implements ExtensionLookup {
+
+  // estimated heap used per byte of an uncompressed data file when its rows are held in memory
+  static final int HEAP_BYTES_PER_FILE_BYTE = 3;
+
+  private final RecordSchema schema;
+  private final Term rowType;
+  // core id -> String[] row, or List<String[]> for core ids with several rows
+  private final Map<String, Object> rows = new HashMap<>();
+
+  private ExtensionRows(RecordSchema schema, Term rowType) {
+    this.schema = schema;
+    this.rowType = rowType;
+  }
+
+  /**
+   * Reads all rows of the extension in a single pass, in the order of the data files.
+   * Rows without a core id are ignored.
+   *
+   * @param extension       the extension data file
+   * @param terms           the terms to read, or null to read all terms
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  @SuppressWarnings("unchecked")
+  static ExtensionRows load(ArchiveFile extension, Set<Term> terms, boolean replaceNulls, boolean replaceEntities)
+      throws IOException {
+    Map<Term, ArchiveField> fields = extension.getFields(terms);
+    int columns = extension.getId().getIndex() + 1;
+    for (ArchiveField field : fields.values()) {
+      if (field.getIndex() != null) {
+        columns = Math.max(columns, field.getIndex() + 1);
+      }
+    }
+
+    // values are cleaned once while loading, so the records created for each join don't clean them again
+    ExtensionRows extensionRows = new ExtensionRows(RecordSchema.of(extension.getId(), fields),
+        extension.getRowType());
+    try (ClosableIterator<Record> it = extension.reusingIterator(terms, replaceNulls, replaceEntities)) {
+      while (it.hasNext()) {
+        Record record = it.next();
+        String id = record.id();
+        if (StringUtils.isBlank(id)) {
+          continue;
+        }
+        String[] row = new String[columns];
+        for (int i = 0; i < columns; i++) {
+          row[i] = record.column(i);
+        }
+        extensionRows.rows.merge(id, row, (existing, added) -> {
+          List<String[]> list;
+          if (existing instanceof String[]) {
+            list = new ArrayList<>(2);
+            list.add((String[]) existing);
+          } else {
+            list = (List<String[]>) existing;
+          }
+          list.add((String[]) added);
+          return list;
+        });
+      }
+    } catch (Exception e) {
+      throw new IOException("Failed to read extension " + extension.getTitle(), e);
+    }
+    return extensionRows;
+  }
+
+  /**
+   * @return new records for the rows of the core id, in the order of the data files
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Record> get(String coreId) {
+    Object found = rows.get(coreId);
+    if (found == null) {
+      return Collections.emptyList();
+    }
+    if (found instanceof String[]) {
+      return Collections.singletonList(record((String[]) found));
+    }
+    List<Record> records = new ArrayList<>();
+    for (String[] row : (List<String[]>) found) {
+      records.add(record(row));
+    }
+    return records;
+  }
+
+  @Override
+  public Term getRowType() {
+    return rowType;
+  }
+
+  @Override
+  public void close() {
+    // nothing to release, the rows are held in memory
+  }
+
+  private Record record(String[] row) {
+    RecordImpl record = new RecordImpl(schema, rowType, false, false);
+    record.setRow(row);
+    return record;
+  }
+}
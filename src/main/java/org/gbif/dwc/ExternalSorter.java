@@ -0,0 +1,671 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * External merge sort of delimited text files by the value of one column, used to sort data files by their id so
+ * that core and extension records can be joined.
+ *
+ * Lines are read into chunks limited by the memory budget. Chunks are sorted concurrently and spilled as sorted runs
+ * into the spill directory, which are then merged with a loser tree. Input which fits into a single chunk is sorted
+ * in memory without spilling.
+ *
+ * Runs and the sorted file can be gzip compressed, which reduces disk I/O by a multiple on I/O bound volumes.
+ *
+ * Lines are compared by their (unquoted) column value as Java strings, like ids are compared when joining core and
+ * extension records. The sort is stable, so lines with the same value keep the order of the input files.
+ * The header lines of the first file are kept at the top of the sorted file, the header lines of further files and
+ * empty lines are removed.
+ */
+public class ExternalSorter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExternalSorter.class);
+
+  public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+  public static final long DEFAULT_MEMORY_BUDGET = Math.min(512L << 20, Runtime.getRuntime().maxMemory() / 4);
+
+  // maximum number of runs merged at once, more runs are merged in several passes
+  static final int DEFAULT_MAX_FAN_IN = 64;
+  // estimated memory used by a line in addition to the characters of its text and key
+  private static final int LINE_OVERHEAD = 96;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final int threads;
+  private final long memoryBudget;
+  private final File spillDirectory;
+  private final int maxFanIn;
+  private final boolean compressRuns;
+  private final boolean compressOutput;
+
+  /**
+   * Sorter using all processors and the default memory budget, spilling next to the sorted file.
+   */
+  public ExternalSorter() {
+    this(DEFAULT_THREADS, DEFAULT_MEMORY_BUDGET, null);
+  }
+
+  /**
+   * @param threads        the number of chunks sorted or merged concurrently
+   * @param memoryBudget   the approximate number of bytes of heap used for lines held in memory
+   * @param spillDirectory the directory to write sorted runs to, or null to write them next to the sorted file
+   */
+  public ExternalSorter(int threads, long memoryBudget, File spillDirectory) {
+    this(threads, memoryBudget, spillDirectory, false, false);
+  }
+
+  /**
+   * @param threads        the number of chunks sorted or merged concurrently
+   * @param memoryBudget   the approximate number of bytes of heap used for lines held in memory
+   * @param spillDirectory the directory to write sorted runs to, or null to write them next to the sorted file
+   * @param compressRuns   if true sorted runs are gzip compressed, trading processing time for less disk I/O
+   * @param compressOutput if true the sorted file is gzip compressed
+   */
+  public ExternalSorter(int threads, long memoryBudget, File spillDirectory, boolean compressRuns,
+                        boolean compressOutput) {
+    this(threads, memoryBudget, spillDirectory, compressRuns, compressOutput, DEFAULT_MAX_FAN_IN);
+  }
+
+  ExternalSorter(int threads, long memoryBudget, File spillDirectory, boolean compressRuns, boolean compressOutput,
+                 int maxFanIn) {
+    if (threads < 1 || memoryBudget < 1 || maxFanIn < 2) {
+      throw new IllegalArgumentException("Threads and memory budget must be positive and fan in at least 2");
+    }
+    this.threads = threads;
+    this.memoryBudget = memoryBudget;
+    this.spillDirectory = spillDirectory;
+    this.maxFanIn = maxFanIn;
+    this.compressRuns = compressRuns;
+    this.compressOutput = compressOutput;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  public File getSpillDirectory() {
+    return spillDirectory;
+  }
+
+  public boolean isCompressRuns() {
+    return compressRuns;
+  }
+
+  public boolean isCompressOutput() {
+    return compressOutput;
+  }
+
+  /**
+   * @return a sorter for one of several files sorted concurrently, sharing the threads and memory budget of this sorter
+   */
+  ExternalSorter share(int concurrentSorts) {
+    return new ExternalSorter(Math.max(1, threads / concurrentSorts), Math.max(1, memoryBudget / concurrentSorts),
+        spillDirectory, compressRuns, compressOutput, maxFanIn);
+  }
+
+  /**
+   * Sorts the lines of the input files into a single file.
+   *
+   * @param inputs      the files to sort, read one after the other
+   * @param sorted      the sorted file to write, terminating lines with a newline
+   * @param charset     the character encoding of the input and sorted files
+   * @param column      the index of the column to sort by
+   * @param delimiter   the column delimiter
+   * @param enclosedBy  the quote character of quoted values, or null if values are not quoted
+   * @param headerLines the number of header lines at the start of each input file
+   */
+  public void sort(List<File> inputs, File sorted, Charset charset, int column, char delimiter, Character enclosedBy,
+                   int headerLines) throws IOException {
+    List<SupplierWithIO<LineSource>> sources = new ArrayList<>();
+    for (File input : inputs) {
+      sources.add(() -> {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(Files.newInputStream(input.toPath()), charset), BUFFER_SIZE);
+        return new LineSource() {
+          @Override
+          public String readLine() throws IOException {
+            return reader.readLine();
+          }
+
+          @Override
+          public void close() throws IOException {
+            reader.close();
+          }
+        };
+      });
+    }
+    sortLines(sources, sorted, charset, column, delimiter, enclosedBy, headerLines);
+  }
+
+  /**
+   * Sorts the lines of the sources into a single file, e.g. lines normalized while parsing a data file.
+   *
+   * @param sources     the sources of the lines to sort, opened and read one after the other
+   * @param sorted      the sorted file to write, terminating lines with a newline
+   * @param charset     the character encoding of the sorted file
+   * @param column      the index of the column to sort by
+   * @param delimiter   the column delimiter
+   * @param enclosedBy  the quote character of quoted values, or null if values are not quoted
+   * @param headerLines the number of header lines at the start of each source
+   */
+  void sortLines(List<SupplierWithIO<LineSource>> sources, File sorted, Charset charset, int column, char delimiter,
+                 Character enclosedBy, int headerLines) throws IOException {
+    File spillDir = spillDirectory == null ? sorted.getAbsoluteFile().getParentFile() : spillDirectory;
+    Files.createDirectories(spillDir.toPath());
+    // chunks being filled or sorted share the budget
+    long chunkBudget = Math.max(1, memoryBudget / (threads + 1));
+
+    List<String> header = new ArrayList<>();
+    List<File> runs = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Semaphore sortingChunks = new Semaphore(threads);
+      List<Future<?>> spills = new ArrayList<>();
+      List<SortLine> chunk = new ArrayList<>();
+      long chunkSize = 0;
+
+      for (int i = 0; i < sources.size(); i++) {
+        try (LineSource reader = sources.get(i).get()) {
+          for (int h = 0; h < headerLines; h++) {
+            String line = reader.readLine();
+            if (line != null && i == 0) {
+              header.add(line);
+            }
+          }
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+              continue;
+            }
+            String key = key(line, column, delimiter, enclosedBy);
+            chunk.add(new SortLine(key, line));
+            chunkSize += 2L * (line.length() + key.length()) + LINE_OVERHEAD;
+            if (chunkSize >= chunkBudget) {
+              sortingChunks.acquire();
+              spills.add(spill(executor, sortingChunks, chunk, newRun(spillDir, sorted, runs)));
+              chunk = new ArrayList<>();
+              chunkSize = 0;
+            }
+          }
+        }
+      }
+
+      if (runs.isEmpty()) {
+        // everything fits into memory
+        SortLine[] lines = chunk.toArray(new SortLine[0]);
+        Arrays.parallelSort(lines, SortLine.ORDER);
+        try (Writer writer = writer(sorted, charset)) {
+          writeHeader(writer, header);
+          for (SortLine line : lines) {
+            writer.write(line.line);
+            writer.write('\n');
+          }
+        }
+        return;
+      }
+
+      if (!chunk.isEmpty()) {
+        sortingChunks.acquire();
+        spills.add(spill(executor, sortingChunks, chunk, newRun(spillDir, sorted, runs)));
+      }
+      await(spills);
+      LOG.debug("Merging {} sorted runs into {}", runs.size(), sorted);
+
+      // merge the runs in several passes until they can be merged into the sorted file at once
+      while (runs.size() > maxFanIn) {
+        List<File> merged = new ArrayList<>();
+        List<Future<?>> merges = new ArrayList<>();
+        for (int from = 0; from < runs.size(); from += maxFanIn) {
+          List<File> group = runs.subList(from, Math.min(runs.size(), from + maxFanIn));
+          File run = newRun(spillDir, sorted, merged);
+          merges.add(executor.submit(() -> {
+            mergeRuns(group, run);
+            deleteRuns(group);
+            return null;
+          }));
+        }
+        try {
+          await(merges);
+        } catch (IOException | InterruptedException e) {
+          shutdownAndAwait(executor);
+          deleteRuns(merged);
+          throw e;
+        }
+        runs = merged;
+      }
+
+      try (Writer writer = writer(sorted, charset)) {
+        writeHeader(writer, header);
+        merge(runs, line -> {
+          writer.write(line.line);
+          writer.write('\n');
+        });
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sorting " + sorted);
+    } finally {
+      shutdownAndAwait(executor);
+      deleteRuns(runs);
+    }
+  }
+
+  /**
+   * Stops the executor and waits for its running tasks to finish, so they don't write runs which are being deleted.
+   */
+  private static void shutdownAndAwait(ExecutorService executor) {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while waiting for sort tasks to finish, runs might be left in the spill directory");
+    }
+  }
+
+  /**
+   * Checks with a single streaming pass whether the lines of the sources are already in sorted order, so sorting them
+   * can be skipped. Reading stops at the first line out of order, which is usually found early in unsorted input.
+   *
+   * @param sources     the sources of the lines, opened and read one after the other
+   * @param column      the index of the column to sort by
+   * @param delimiter   the column delimiter
+   * @param enclosedBy  the quote character of quoted values, or null if values are not quoted
+   * @param headerLines the number of header lines at the start of each source
+   * @return true if the column values never decrease
+   */
+  boolean isSorted(List<SupplierWithIO<LineSource>> sources, int column, char delimiter, Character enclosedBy,
+                   int headerLines) throws IOException {
+    String previous = null;
+    for (SupplierWithIO<LineSource> source : sources) {
+      try (LineSource reader = source.get()) {
+        for (int h = 0; h < headerLines; h++) {
+          reader.readLine();
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.isEmpty()) {
+            continue;
+          }
+          String key = key(line, column, delimiter, enclosedBy);
+          if (previous != null && previous.compareTo(key) > 0) {
+            return false;
+          }
+          previous = key;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies the lines of sources which are already sorted into a single file, like {@link #sortLines} would write them.
+   *
+   * @param sources     the sources of the lines, opened and read one after the other
+   * @param sorted      the sorted file to write, terminating lines with a newline
+   * @param charset     the character encoding of the sorted file
+   * @param headerLines the number of header lines at the start of each source
+   */
+  void copyLines(List<SupplierWithIO<LineSource>> sources, File sorted, Charset charset, int headerLines)
+      throws IOException {
+    try (Writer writer = writer(sorted, charset)) {
+      for (int i = 0; i < sources.size(); i++) {
+        try (LineSource reader = sources.get(i).get()) {
+          for (int h = 0; h < headerLines; h++) {
+            String line = reader.readLine();
+            if (line != null && i == 0) {
+              writer.write(line);
+              writer.write('\n');
+            }
+          }
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+              writer.write(line);
+              writer.write('\n');
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the value of the column, without enclosing quotes, or an empty string if the line has fewer columns
+   */
+  static String key(String line, int column, char delimiter, Character enclosedBy) {
+    int start = 0;
+    for (int c = 0; c < column; c++) {
+      start = columnEnd(line, start, delimiter, enclosedBy) + 1;
+      if (start > line.length()) {
+        return "";
+      }
+    }
+    int end = columnEnd(line, start, delimiter, enclosedBy);
+    if (enclosedBy != null && end - start >= 2 && line.charAt(start) == enclosedBy
+        && line.charAt(end - 1) == enclosedBy) {
+      String quote = String.valueOf(enclosedBy.charValue());
+      return line.substring(start + 1, end - 1).replace(quote + quote, quote);
+    }
+    return line.substring(start, end);
+  }
+
+  /**
+   * @return the index of the delimiter ending the column starting at the given index, or the length of the line
+   */
+  private static int columnEnd(String line, int start, char delimiter, Character enclosedBy) {
+    int i = start;
+    if (enclosedBy != null && i < line.length() && line.charAt(i) == enclosedBy) {
+      // skip the quoted value, in which doubled quotes escape a quote
+      i++;
+      while (i < line.length()) {
+        if (line.charAt(i) == enclosedBy) {
+          if (i + 1 < line.length() && line.charAt(i + 1) == enclosedBy) {
+            i++;
+          } else {
+            i++;
+            break;
+          }
+        }
+        i++;
+      }
+    }
+    int end = line.indexOf(delimiter, i);
+    return end < 0 ? line.length() : end;
+  }
+
+  private static File newRun(File spillDir, File sorted, List<File> runs) throws IOException {
+    File run = Files.createTempFile(spillDir.toPath(), sorted.getName() + "-run", null).toFile();
+    runs.add(run);
+    return run;
+  }
+
+  private Future<?> spill(ExecutorService executor, Semaphore sortingChunks, List<SortLine> chunk, File run) {
+    return executor.submit(() -> {
+      try {
+        chunk.sort(SortLine.ORDER);
+        try (DataOutputStream out = new DataOutputStream(runOutput(run))) {
+          for (SortLine line : chunk) {
+            line.write(out);
+          }
+        }
+      } finally {
+        sortingChunks.release();
+      }
+      return null;
+    });
+  }
+
+  private void mergeRuns(List<File> runs, File merged) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(runOutput(merged))) {
+      merge(runs, line -> line.write(out));
+    }
+  }
+
+  /**
+   * Merges the sorted runs, passing lines with the same key in the order of the runs.
+   */
+  private void merge(List<File> runs, LineConsumer consumer) throws IOException {
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      for (File run : runs) {
+        readers.add(new RunReader(runInput(run)));
+      }
+      LoserTree tree = new LoserTree(readers.toArray(new RunReader[0]));
+      SortLine line;
+      while ((line = tree.next()) != null) {
+        consumer.accept(line);
+      }
+    } finally {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private static void await(List<Future<?>> futures) throws IOException, InterruptedException {
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to sort", e.getCause());
+    }
+  }
+
+  private static void deleteRuns(List<File> runs) throws IOException {
+    for (File run : runs) {
+      Files.deleteIfExists(run.toPath());
+    }
+  }
+
+  private Writer writer(File file, Charset charset) throws IOException {
+    OutputStream out = Files.newOutputStream(file.toPath());
+    return new BufferedWriter(new OutputStreamWriter(compressOutput ? gzip(out) : out, charset), BUFFER_SIZE);
+  }
+
+  private OutputStream runOutput(File run) throws IOException {
+    OutputStream out = Files.newOutputStream(run.toPath());
+    return new BufferedOutputStream(compressRuns ? gzip(out) : out, BUFFER_SIZE);
+  }
+
+  private InputStream runInput(File run) throws IOException {
+    InputStream in = Files.newInputStream(run.toPath());
+    return new BufferedInputStream(compressRuns ? new GZIPInputStream(in, BUFFER_SIZE) : in, BUFFER_SIZE);
+  }
+
+  /**
+   * @return a gzip stream favouring speed over compression
+   */
+  private static OutputStream gzip(OutputStream out) throws IOException {
+    return new GZIPOutputStream(out, BUFFER_SIZE) {
+      {
+        def.setLevel(Deflater.BEST_SPEED);
+      }
+    };
+  }
+
+  private static void writeHeader(Writer writer, List<String> header) throws IOException {
+    for (String line : header) {
+      writer.write(line);
+      writer.write('\n');
+    }
+  }
+
+  /**
+   * Lines to sort, read one by one.
+   */
+  interface LineSource extends Closeable {
+    /**
+     * @return the next line, without line terminator, or null at the end
+     */
+    String readLine() throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface LineConsumer {
+    void accept(SortLine line) throws IOException;
+  }
+
+  /**
+   * A line and the value it is sorted by.
+   */
+  private static final class SortLine {
+    static final Comparator<SortLine> ORDER = Comparator.comparing(l -> l.key);
+
+    final String key;
+    final String line;
+
+    SortLine(String key, String line) {
+      this.key = key;
+      this.line = line;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      writeString(out, key);
+      writeString(out, line);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Reads the lines of a sorted run one by one.
+   */
+  private static final class RunReader implements AutoCloseable {
+    private final DataInputStream in;
+    private SortLine current;
+
+    RunReader(InputStream run) throws IOException {
+      in = new DataInputStream(run);
+      advance();
+    }
+
+    SortLine current() {
+      return current;
+    }
+
+    void advance() throws IOException {
+      String key = readString();
+      current = key == null ? null : new SortLine(key, Objects.requireNonNull(readString()));
+    }
+
+    private String readString() throws IOException {
+      int length;
+      try {
+        length = in.readInt();
+      } catch (EOFException e) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Tournament tree of losers selecting the smallest current line of the runs with about log2(k) comparisons per line.
+   * Ties are won by the earlier run, which keeps the merge stable.
+   */
+  private static final class LoserTree {
+    private final RunReader[] runs;
+    // loser of the match at each inner node, the leaves of run i are the nodes k + i
+    private final int[] losers;
+    private int winner;
+
+    LoserTree(RunReader[] runs) {
+      this.runs = runs;
+      this.losers = new int[runs.length];
+      this.winner = runs.length == 1 ? 0 : play(1);
+    }
+
+    private int play(int node) {
+      if (node >= runs.length) {
+        return node - runs.length;
+      }
+      int a = play(2 * node);
+      int b = play(2 * node + 1);
+      if (beats(a, b)) {
+        losers[node] = b;
+        return a;
+      }
+      losers[node] = a;
+      return b;
+    }
+
+    private boolean beats(int a, int b) {
+      SortLine la = runs[a].current();
+      SortLine lb = runs[b].current();
+      if (la == null || lb == null) {
+        return lb == null && (la != null || a < b);
+      }
+      int c = la.key.compareTo(lb.key);
+      return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * @return the next line in sort order, or null once all runs are exhausted
+     */
+    SortLine next() throws IOException {
+      SortLine line = runs[winner].current();
+      if (line == null) {
+        return null;
+      }
+      runs[winner].advance();
+      int w = winner;
+      for (int node = (w + runs.length) / 2; node > 0; node /= 2) {
+        if (beats(losers[node], w)) {
+          int loser = w;
+          w = losers[node];
+          losers[node] = loser;
+        }
+      }
+      winner = w;
+      return line;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Advisory locks on lock files, e.g. held while the sorted file of a data file is created.
+ *
+ * File locks are held by the whole JVM, so a second lock on the same file from another thread fails with an
+ * OverlappingFileLockException instead of waiting. Threads therefore first take a lock per lock file within the JVM,
+ * and only the thread holding it takes the file lock which guards against other processes. The locks are reentrant,
+ * a thread already holding a lock doesn't lock the file again.
+ */
+final class FileLocks {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FileLocks.class);
+
+  // locks of the lock files currently in use within this JVM, removed once they are released
+  private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+  private FileLocks() {}
+
+  /**
+   * Runs the action holding the lock of the lock file, waiting for other threads and processes to release it.
+   */
+  static <T> T locked(File lockFile, SupplierWithIO<T> action) throws IOException {
+    String key = key(lockFile);
+    ReentrantLock lock = lock(key, true);
+    try {
+      if (lock.getHoldCount() > 1) {
+        return action.get();
+      }
+      try (RandomAccessFile lockFileRA = new RandomAccessFile(lockFile, "rw")) {
+        FileLock fileLock = lockFileRA.getChannel().tryLock();
+        if (fileLock == null) {
+          LOG.warn("Another process has locked this DWCA for initialization; waiting until the lock is released.");
+          fileLock = lockFileRA.getChannel().lock();
+          LOG.warn("Other process has released lock; lock taken, proceeding.");
+        }
+        try {
+          return action.get();
+        } finally {
+          fileLock.release();
+        }
+      }
+    } finally {
+      unlock(key, lock);
+    }
+  }
+
+  /**
+   * Runs the action holding the lock of the lock file, unless another thread or process holds it.
+   *
+   * @return false if the lock is held by someone else and the action was not run
+   */
+  static boolean tryLocked(File lockFile, SupplierWithIO<?> action) throws IOException {
+    String key = key(lockFile);
+    ReentrantLock lock = lock(key, false);
+    if (lock == null) {
+      return false;
+    }
+    try {
+      if (lock.getHoldCount() > 1) {
+        action.get();
+        return true;
+      }
+      try (RandomAccessFile lockFileRA = new RandomAccessFile(lockFile, "rw")) {
+        FileLock fileLock = lockFileRA.getChannel().tryLock();
+        if (fileLock == null) {
+          return false;
+        }
+        try {
+          action.get();
+          return true;
+        } finally {
+          fileLock.release();
+        }
+      }
+    } finally {
+      unlock(key, lock);
+    }
+  }
+
+  private static String key(File lockFile) {
+    return lockFile.getAbsoluteFile().toPath().normalize().toString();
+  }
+
+  /**
+   * @param wait if false returns null instead of waiting for another thread to release the lock
+   */
+  private static ReentrantLock lock(String key, boolean wait) {
+    while (true) {
+      ReentrantLock lock = LOCKS.computeIfAbsent(key, k -> new ReentrantLock());
+      if (wait) {
+        lock.lock();
+      } else if (!lock.tryLock()) {
+        return null;
+      }
+      // the lock might have been released and removed while waiting for it
+      if (LOCKS.get(key) == lock) {
+        return lock;
+      }
+      lock.unlock();
+    }
+  }
+
+  private static void unlock(String key, ReentrantLock lock) {
+    if (lock.getHoldCount() == 1) {
+      LOCKS.remove(key, lock);
+    }
+    lock.unlock();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.StarRecord;
+import org.gbif.dwc.record.StarRecordImpl;
+import org.gbif.dwc.terms.Term;
+import org.gbif.utils.file.ClosableIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ClosableIterator} of {@link StarRecord} which streams the core records in the order of the core data files
+ * and looks up the extension records of each core record by its id, e.g. in extension rows held in memory.
+ * Neither the core nor the extension data files need to be sorted.
+ */
+class HashJoinStarRecordIterator implements ClosableIterator<StarRecord> {
+
+  private final StarRecordImpl rec;
+  private final ClosableIterator<Record> coreIter;
+  private final List<? extends ExtensionLookup> extensions;
+
+  HashJoinStarRecordIterator(ClosableIterator<Record> coreIt, List<? extends ExtensionLookup> extensions) {
+    this.coreIter = coreIt;
+    this.extensions = extensions;
+    List<Term> rowTypes = new ArrayList<>();
+    for (ExtensionLookup ext : extensions) {
+      rowTypes.add(ext.getRowType());
+    }
+    rec = new StarRecordImpl(rowTypes);
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (ExtensionLookup ext : extensions) {
+      try {
+        ext.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    try {
+      coreIter.close();
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return coreIter.hasNext();
+  }
+
+  @Override
+  public StarRecord next() {
+    Record core = coreIter.next();
+    rec.newCoreRecord(core);
+    // add extension records if core id exists
+    if (core.id() != null) {
+      for (ExtensionLookup ext : extensions) {
+        try {
+          for (Record extRecord : ext.get(core.id())) {
+            rec.addRecord(ext.getRowType(), extRecord);
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to read " + ext.getRowType() + " records of " + core.id(), e);
+        }
+      }
+    }
+    return rec;
+  }
+}
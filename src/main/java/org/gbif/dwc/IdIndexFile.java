@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Index of the lines of a data file by their id, persisted next to the data file so point lookups don't need to scan
+ * the data file.
+ *
+ * The file starts with a magic number and the number of lines, followed by the 64 bit hash of the id, the position
+ * and the length of every line, sorted by hash. Lines are found with a binary search over the memory mapped file.
+ * Several ids can share a hash, so the id of each line found must be compared with the requested id.
+ */
+final class IdIndexFile {
+
+  private static final byte[] MAGIC = "DWCAIDX1".getBytes(StandardCharsets.US_ASCII);
+  private static final int HEADER_SIZE = MAGIC.length + Long.BYTES;
+  private static final int ENTRY_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+  // entries per memory mapped segment, as a single buffer can't map more than 2GB
+  private static final int SEGMENT_ENTRIES = 1 << 25;
+
+  private final MappedByteBuffer[] segments;
+  private final long size;
+
+  /**
+   * Visits the lines of an index.
+   */
+  @FunctionalInterface
+  interface LineVisitor {
+    /**
+     * @param hash     the hash of the id of the line
+     * @param position the position of the line within the concatenation of all data files
+     * @param length   the length of the line, without its terminator
+     */
+    void visit(long hash, long position, int length) throws IOException;
+  }
+
+  private IdIndexFile(MappedByteBuffer[] segments, long size) {
+    this.segments = segments;
+    this.size = size;
+  }
+
+  /**
+   * Writes the lines of the index to the file.
+   */
+  static void write(ExtensionOffsetIndex index, File file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16))) {
+      out.write(MAGIC);
+      out.writeLong(index.size());
+      index.visitSorted((hash, position, length) -> {
+        out.writeLong(hash);
+        out.writeLong(position);
+        out.writeInt(length);
+      });
+    }
+  }
+
+  /**
+   * Maps the index file into memory.
+   *
+   * @throws IOException if the file is not a complete index file
+   */
+  static IdIndexFile open(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      if (fileSize < HEADER_SIZE) {
+        throw new IOException("Invalid index file " + file);
+      }
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      byte[] magic = new byte[MAGIC.length];
+      header.get(magic);
+      long size = header.getLong();
+      if (!Arrays.equals(MAGIC, magic) || size < 0 || fileSize != HEADER_SIZE + size * ENTRY_SIZE) {
+        throw new IOException("Invalid index file " + file);
+      }
+
+      MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+      for (int s = 0; s < segments.length; s++) {
+        long entries = Math.min(SEGMENT_ENTRIES, size - (long) s * SEGMENT_ENTRIES);
+        segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+            HEADER_SIZE + (long) s * SEGMENT_ENTRIES * ENTRY_SIZE, entries * ENTRY_SIZE);
+      }
+      return new IdIndexFile(segments, size);
+    }
+  }
+
+  /**
+   * Visits the lines with the hash, in the order of the data files.
+   */
+  void find(long hash, LineVisitor visitor) throws IOException {
+    // first entry with a hash not lower than the requested hash
+    long low = 0;
+    long high = size;
+    while (low < high) {
+      long mid = (low + high) >>> 1;
+      if (hash(mid) < hash) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    for (long i = low; i < size && hash(i) == hash; i++) {
+      MappedByteBuffer segment = segments[(int) (i / SEGMENT_ENTRIES)];
+      int offset = (int) (i % SEGMENT_ENTRIES) * ENTRY_SIZE;
+      visitor.visit(hash, segment.getLong(offset + Long.BYTES), segment.getInt(offset + 2 * Long.BYTES));
+    }
+  }
+
+  private long hash(long entry) {
+    return segments[(int) (entry / SEGMENT_ENTRIES)].getLong((int) (entry % SEGMENT_ENTRIES) * ENTRY_SIZE);
+  }
+}
@@ -29,16 +29,20 @@ import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.zip.ZipException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOCase;
@@ -79,6 +83,11 @@ class InternalDwcFileFactory {
   private static final List<Term> ID_TERMS = Collections.unmodifiableList(
           Arrays.asList(DwcTerm.occurrenceID, DwcTerm.taxonID, DwcTerm.eventID, DcTerm.identifier));
 
+  /**
+   * Maximum number of zip entries decompressed concurrently.
+   */
+  private static final int EXTRACTION_THREADS = Runtime.getRuntime().availableProcessors();
+
   private static final List<String> DATA_FILE_SUFFICES = Arrays.asList(".csv", ".txt", ".tsv", ".tab", ".text", ".data", ".dwca");
 
   // Utility class
@@ -183,16 +192,52 @@ class InternalDwcFileFactory {
   }
 
   static Archive fromCompressed(Path dwcaLocation, Path destination) throws IOException, UnsupportedArchiveException {
+    return fromCompressed(dwcaLocation, destination, false);
+  }
+
+  /**
+   * @param lazy if true only the meta descriptor, metadata and other files which are not data files are extracted from
+   *             a zip file up front, data files are extracted the first time they are read or sorted
+   */
+  static Archive fromCompressed(Path dwcaLocation, Path destination, boolean lazy)
+    throws IOException, UnsupportedArchiveException {
     if (!Files.exists(dwcaLocation)) {
       throw new FileNotFoundException("dwcaLocation does not exist: " + dwcaLocation.toAbsolutePath());
     }
 
-    if (Files.exists(destination)) {
-      // clean up any existing folder
-      LOG.debug("Deleting existing archive folder [{}]", destination.toAbsolutePath());
-      org.gbif.utils.file.FileUtils.deleteDirectoryRecursively(destination.toFile());
+    // reuse a previous extraction of the same file, including sorted data files
+    String fingerprint = ArchiveFingerprint.of(dwcaLocation);
+    if (ArchiveFingerprint.matches(destination, fingerprint)) {
+      LOG.debug("Reusing archive folder [{}] extracted from unchanged {}", destination.toAbsolutePath(), dwcaLocation);
+      return fromLocation(destination);
+    }
+
+    ZipArchiveEntries entries = zipEntries(dwcaLocation);
+    if (entries != null) {
+      // files of a partial extraction of the same file are complete, so only the missing files are extracted
+      String partialFingerprint = ArchiveFingerprint.partial(fingerprint);
+      if (!ArchiveFingerprint.matches(destination, partialFingerprint)) {
+        cleanDirectory(destination);
+        ArchiveFingerprint.write(destination, partialFingerprint);
+      }
+
+      Set<String> dataFiles = lazy && entries.contains(Archive.META_FN)
+          ? dataFileNames(readMetaDescriptor(entries)) : Collections.emptySet();
+      // entries are named with the single root folder already removed
+      entries.extractAll(destination.toFile(), name -> !dataFiles.contains(name), EXTRACTION_THREADS);
+      Archive archive = fromLocation(destination);
+      if (dataFiles.isEmpty()) {
+        // only mark complete extractions as reusable
+        ArchiveFingerprint.write(destination, fingerprint);
+      } else {
+        LOG.debug("Data files {} will be extracted when first read", dataFiles);
+        archive.setZipEntries(entries);
+        archive.setExtractOnRead(true);
+      }
+      return archive;
     }
-    FileUtils.forceMkdir(destination.toFile());
+
+    cleanDirectory(destination);
     // try to decompress archive
     try {
       CompressionUtil.decompressFile(destination.toFile(), dwcaLocation.toFile(), true);
@@ -209,13 +254,112 @@ class InternalDwcFileFactory {
           }
         }
       }
+      Archive archive = fromLocation(destination);
+      // only mark complete extractions as reusable
+      ArchiveFingerprint.write(destination, fingerprint);
       // continue to read archive from the tmp dir
-      return fromLocation(destination);
+      return archive;
     } catch (CompressionUtil.UnsupportedCompressionType e) {
       throw new UnsupportedArchiveException(e);
     }
   }
 
+  /**
+   * Replaces the directory by an empty one.
+   */
+  private static void cleanDirectory(Path directory) throws IOException {
+    if (Files.exists(directory)) {
+      // clean up any existing folder
+      LOG.debug("Deleting existing archive folder [{}]", directory.toAbsolutePath());
+      org.gbif.utils.file.FileUtils.deleteDirectoryRecursively(directory.toFile());
+    }
+    FileUtils.forceMkdir(directory.toFile());
+  }
+
+  /**
+   * @return the entries of the zip file, or null if the file is not a zip file
+   */
+  private static ZipArchiveEntries zipEntries(Path dwcaLocation) throws IOException {
+    try {
+      return new ZipArchiveEntries(dwcaLocation);
+    } catch (ZipException e) {
+      LOG.debug("{} is not a zip file: {}", dwcaLocation, e.getMessage());
+      return null;
+    }
+  }
+
+  private static Archive readMetaDescriptor(ZipArchiveEntries entries) throws UnsupportedArchiveException {
+    try (InputStream metaDescriptor = entries.open(Archive.META_FN)) {
+      return DwcMetaFiles.fromMetaDescriptor(metaDescriptor);
+    } catch (SAXException | IOException e) {
+      // using UnsupportedArchiveException for backward compatibility but IOException would be fine here
+      throw new UnsupportedArchiveException(e);
+    }
+  }
+
+  /**
+   * @return the locations of the core and extension data files
+   */
+  private static Set<String> dataFileNames(Archive archive) {
+    Set<String> names = new HashSet<>();
+    if (archive.getCore() != null) {
+      names.addAll(archive.getCore().getLocations());
+    }
+    for (ArchiveFile extension : archive.getExtensions()) {
+      names.addAll(extension.getLocations());
+    }
+    return names;
+  }
+
+  /**
+   * Reads an archive directly from a zip file, without extracting it.
+   * Only the meta descriptor is read up front, data files and metadata are read from the zip file when accessed.
+   * Data files are only extracted to the work directory if they need to be sorted, e.g. to iterate star records.
+   *
+   * Archives without a meta descriptor are extracted into the work directory, to detect their data file.
+   * Data files already extracted or sorted in the work directory are kept if the zip file did not change.
+   *
+   * @param dwcaLocation  the location of a zipped Darwin Core Archive
+   * @param workDirectory the directory to extract or sort data files in
+   */
+  static Archive fromZip(Path dwcaLocation, Path workDirectory) throws IOException, UnsupportedArchiveException {
+    if (!Files.exists(dwcaLocation)) {
+      throw new FileNotFoundException("dwcaLocation does not exist: " + dwcaLocation.toAbsolutePath());
+    }
+
+    ZipArchiveEntries entries;
+    try {
+      entries = new ZipArchiveEntries(dwcaLocation);
+    } catch (ZipException e) {
+      throw new UnsupportedArchiveException(e);
+    }
+
+    if (!entries.contains(Archive.META_FN)) {
+      LOG.debug("No meta descriptor found in {}, extracting the archive", dwcaLocation);
+      return fromCompressed(dwcaLocation, workDirectory);
+    }
+
+    // keep data files extracted and sorted from the same file, otherwise start from an empty work directory
+    String fingerprint = ArchiveFingerprint.of(dwcaLocation);
+    String partialFingerprint = ArchiveFingerprint.partial(fingerprint);
+    if (!ArchiveFingerprint.matches(workDirectory, fingerprint)
+        && !ArchiveFingerprint.matches(workDirectory, partialFingerprint)) {
+      cleanDirectory(workDirectory);
+      ArchiveFingerprint.write(workDirectory, partialFingerprint);
+    }
+
+    Archive archive = readMetaDescriptor(entries);
+
+    DwcMetaFiles.discoverMetadataFile(entries.names())
+            .ifPresent(archive::setMetadataLocation);
+
+    archive.setLocation(workDirectory.toFile());
+    archive.setDwcLayout(DwcLayout.DIRECTORY_ROOT);
+    archive.setZipEntries(entries);
+
+    return archive;
+  }
+
   /**
    * Return a {@link ArchiveFile} based on a single data file.
    * Delimiter, quote char and encoding will be extracted from the file using {@link TabularFileMetadataExtractor}.
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.RecordImpl;
+import org.gbif.dwc.record.RecordSchema;
+import org.gbif.dwc.terms.Term;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Record backed by the bytes of a line, e.g. within a memory mapped data file.
+ * Only the field offsets are kept, column values are decoded to Strings when they are accessed.
+ *
+ * Like reading the data file with a reader, bytes which are malformed in the charset of the data file are not replaced
+ * but fail with an IllegalStateException caused by a {@link CharacterCodingException}. As values are decoded lazily,
+ * this happens when the value is accessed rather than when the line is read.
+ */
+class MappedRecord extends RecordImpl {
+
+  private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+  private final Charset charset;
+  private ByteBuffer buffer;
+  // start of each column; the last entry is one position past the end of the line
+  private int[] offsets;
+  private int columns;
+
+  MappedRecord(RecordSchema schema, Term rowType, boolean replaceNulls, boolean replaceEntities, ByteBuffer buffer,
+               Charset charset, int[] offsets, int columns) {
+    super(schema, rowType, replaceNulls, replaceEntities);
+    this.charset = charset;
+    setLine(buffer, offsets, columns);
+  }
+
+  /**
+   * Points this record to another line, used when records are reused.
+   *
+   * @param offsets start of each column followed by one position past the end of the line, may be longer than needed
+   * @param columns number of columns in the line
+   */
+  void setLine(ByteBuffer buffer, int[] offsets, int columns) {
+    this.buffer = buffer;
+    this.offsets = offsets;
+    this.columns = columns;
+    clearCleaned();
+  }
+
+  @Override
+  protected int columns() {
+    return columns;
+  }
+
+  @Override
+  protected String rawColumn(int index) {
+    int start = offsets[index];
+    byte[] bytes = new byte[offsets[index + 1] - 1 - start];
+    buffer.get(start, bytes);
+    String value = new String(bytes, charset);
+    // malformed bytes are decoded to the replacement character, but so is a valid replacement character
+    if (value.indexOf(REPLACEMENT_CHARACTER) >= 0) {
+      try {
+        charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT)
+            .decode(ByteBuffer.wrap(bytes));
+      } catch (CharacterCodingException e) {
+        throw new IllegalStateException("Column " + index + " is not valid " + charset, e);
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public boolean hasRow() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < columns(); i++) {
+      if (i > 0) {
+        sb.append('|');
+      }
+      sb.append(rawColumn(i));
+    }
+    return "Record{" + id() + "}[" + sb + "]";
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.RecordSchema;
+import org.gbif.dwc.terms.Term;
+import org.gbif.utils.file.ClosableIterator;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * {@link ClosableIterator} of {@link Record} reading an unquoted, newline terminated data file through memory mapped
+ * windows of the file.
+ * Records keep a reference to the window they were read from and only decode the columns which are accessed.
+ *
+ * Like the tabular file reader, carriage returns also terminate a line and empty lines are skipped.
+ * The encoding must be ASCII compatible, so that delimiter and line terminator bytes never occur within a character.
+ *
+ * If records are reused, the same record instance is refilled for every line and stays valid only until the next call
+ * to {@link #hasNext()} or {@link #next()}.
+ */
+class MappedRecordIterator implements ClosableIterator<Record> {
+
+  // a single line may not be larger than a window
+  static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+  private final FileChannel channel;
+  private final long size;
+  private final long windowSize;
+  private final Charset charset;
+  private final byte delimiter;
+  private final long delimiters;
+
+  private final ArchiveField id;
+  private final Map<Term, ArchiveField> fields;
+  private final RecordSchema schema;
+  private final Term rowType;
+  private final boolean replaceNulls;
+  private final boolean replaceEntities;
+  // the single record refilled for every line, or null if records are not reused
+  private final MappedRecord reusedRecord;
+
+  private MappedByteBuffer window;
+  private long windowStart;
+  private int pos;
+  private int[] offsets = new int[32];
+
+  private Record nextRecord;
+  private boolean end = false;
+
+  /**
+   * @param replaceNulls    if true record values will have literal nulls replaced with NULL.
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  MappedRecordIterator(Path file, Charset charset, char delimiter, int headerLines, ArchiveField id,
+                       Map<Term, ArchiveField> fields, Term rowType, boolean replaceNulls, boolean replaceEntities)
+    throws IOException {
+    this(file, charset, delimiter, headerLines, id, fields, rowType, replaceNulls, replaceEntities, false,
+      DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * @param reuseRecords if true the same record instance is returned for every line
+   */
+  MappedRecordIterator(Path file, Charset charset, char delimiter, int headerLines, ArchiveField id,
+                       Map<Term, ArchiveField> fields, Term rowType, boolean replaceNulls, boolean replaceEntities,
+                       boolean reuseRecords, long windowSize) throws IOException {
+    this(file, charset, delimiter, headerLines, 0, Long.MAX_VALUE, id, fields, rowType, replaceNulls, replaceEntities,
+      reuseRecords, windowSize);
+  }
+
+  /**
+   * Reads the lines within a byte range of the file only.
+   *
+   * @param start position of the first line to read, which must be the start of a line
+   * @param end   position after the last line to read, which must be the start of a line or beyond the end of the file
+   */
+  MappedRecordIterator(Path file, Charset charset, char delimiter, int headerLines, long start, long end,
+                       ArchiveField id, Map<Term, ArchiveField> fields, Term rowType, boolean replaceNulls,
+                       boolean replaceEntities, boolean reuseRecords, long windowSize) throws IOException {
+    if (delimiter > 127) {
+      throw new IllegalArgumentException("Delimiter must be a single byte ASCII character");
+    }
+    this.charset = charset;
+    this.delimiter = (byte) delimiter;
+    this.delimiters = ByteScanner.broadcast(this.delimiter);
+    this.id = id;
+    this.fields = fields;
+    this.schema = fields == null ? null : RecordSchema.of(id, fields);
+    this.rowType = rowType;
+    this.replaceNulls = replaceNulls;
+    this.replaceEntities = replaceEntities;
+    this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+    this.reusedRecord = reuseRecords
+      ? new MappedRecord(schema, rowType, replaceNulls, replaceEntities, null, charset, offsets, 0)
+      : null;
+
+    channel = FileChannel.open(file, StandardOpenOption.READ);
+    size = Math.min(end, channel.size());
+    map(Math.min(start, size));
+
+    // header lines are skipped as they are, including empty ones, a "\r\n" ends a single header line
+    for (int i = 0; i < headerLines; i++) {
+      int eol = lineEnd();
+      if (eol < 0) {
+        break;
+      }
+      boolean carriageReturn = eol < window.limit() && window.get(eol) == '\r';
+      pos = Math.min(eol + 1, window.limit());
+      if (carriageReturn && nextByte() == '\n') {
+        pos++;
+      }
+    }
+  }
+
+  /**
+   * @return the byte at the current position, remapping the window if needed, or -1 at the end of the file
+   */
+  private int nextByte() throws IOException {
+    if (pos == window.limit()) {
+      if (windowStart + pos >= size) {
+        return -1;
+      }
+      map(windowStart + pos);
+    }
+    return window.get(pos);
+  }
+
+  /**
+   * @return the position in the file of the next line to be read
+   */
+  long position() {
+    return windowStart + pos;
+  }
+
+  private void map(long position) throws IOException {
+    windowStart = position;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+    // for the scanner
+    window.order(ByteOrder.LITTLE_ENDIAN);
+    pos = 0;
+  }
+
+  /**
+   * Makes sure the line starting at the current position is entirely within the window, remapping it if needed.
+   *
+   * @return the index of the line terminator within the window, the window limit for a last line without terminator,
+   * or -1 at the end of the file
+   */
+  private int lineEnd() throws IOException {
+    while (true) {
+      int limit = window.limit();
+      int eol = ByteScanner.indexOfLineEnd(window, pos, limit);
+      if (eol >= 0) {
+        return eol;
+      }
+      if (windowStart + limit >= size) {
+        return pos < limit ? limit : -1;
+      }
+      if (pos == 0) {
+        throw new IOException("Line at byte " + windowStart + " is larger than the mapped window of " + windowSize + " bytes");
+      }
+      map(windowStart + pos);
+    }
+  }
+
+  /**
+   * @return the next non-empty line as a record, or null at the end of the file
+   */
+  private Record readRecord() throws IOException {
+    while (true) {
+      int eol = lineEnd();
+      if (eol < 0) {
+        return null;
+      }
+      int start = pos;
+      pos = Math.min(eol + 1, window.limit());
+      if (eol > start) {
+        int columns = split(start, eol);
+        if (reusedRecord != null) {
+          reusedRecord.setLine(window, offsets, columns);
+          return reusedRecord;
+        }
+        return new MappedRecord(schema, rowType, replaceNulls, replaceEntities, window, charset,
+          Arrays.copyOf(offsets, columns + 1), columns);
+      }
+    }
+  }
+
+  /**
+   * Fills the offsets of the line's columns.
+   *
+   * @return the number of columns
+   */
+  private int split(int start, int eol) {
+    int n = 0;
+    offsets[n++] = start;
+    int i = ByteScanner.indexOf(window, start, eol, delimiter, delimiters);
+    while (i >= 0) {
+      if (n == offsets.length) {
+        offsets = Arrays.copyOf(offsets, n * 2);
+      }
+      offsets[n++] = i + 1;
+      i = ByteScanner.indexOf(window, i + 1, eol, delimiter, delimiters);
+    }
+    if (n == offsets.length) {
+      offsets = Arrays.copyOf(offsets, n + 1);
+    }
+    offsets[n] = eol + 1;
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    end = true;
+    nextRecord = null;
+    window = null;
+    channel.close();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextRecord != null) {
+      return true;
+    }
+    if (end) {
+      return false;
+    }
+    try {
+      nextRecord = readRecord();
+    } catch (IOException e) {
+      try {
+        close();
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      throw new IllegalStateException(e);
+    }
+    return nextRecord != null;
+  }
+
+  @Override
+  public Record next() {
+    Record record = null;
+    if (hasNext()) {
+      record = nextRecord;
+      nextRecord = null;
+    } else {
+      end = true;
+    }
+    return record;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MappedRecordIterator %s, %s, %s, %s, %s", id, fields, rowType, replaceNulls, replaceEntities);
+  }
+}
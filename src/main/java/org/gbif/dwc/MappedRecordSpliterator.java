@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.Term;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * {@link Spliterator} of {@link Record} over a byte range of an unquoted, newline terminated data file.
+ * Ranges are split in halves aligned to the next newline, each range being read by its own
+ * {@link MappedRecordIterator} so that records can be parsed in parallel.
+ *
+ * Header lines are excluded from the initial range. All iterators opened by the splits of a spliterator are closed by
+ * {@link #close()}.
+ */
+class MappedRecordSpliterator implements Spliterator<Record> {
+
+  // ranges smaller than this are not split any further
+  static final long DEFAULT_MIN_SPLIT_SIZE = 1L << 20;
+
+  private static final int SCAN_BUFFER_SIZE = 8192;
+  private static final byte NEWLINE = '\n';
+  private static final long NEWLINES = ByteScanner.broadcast(NEWLINE);
+
+  private final Path file;
+  private final Charset charset;
+  private final char delimiter;
+  private final ArchiveField id;
+  private final Map<Term, ArchiveField> fields;
+  private final Term rowType;
+  private final boolean replaceNulls;
+  private final boolean replaceEntities;
+  private final long minSplitSize;
+  // iterators opened by this spliterator and all of its splits
+  private final Queue<MappedRecordIterator> opened;
+
+  private long start;
+  private final long end;
+  private MappedRecordIterator iterator;
+
+  /**
+   * @param replaceNulls    if true record values will have literal nulls replaced with NULL.
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  MappedRecordSpliterator(Path file, Charset charset, char delimiter, int headerLines, ArchiveField id,
+                          Map<Term, ArchiveField> fields, Term rowType, boolean replaceNulls, boolean replaceEntities,
+                          long minSplitSize) throws IOException {
+    this(file, charset, delimiter, id, fields, rowType, replaceNulls, replaceEntities, minSplitSize,
+      new ConcurrentLinkedQueue<>(), dataStart(file, charset, delimiter, headerLines), Files.size(file));
+  }
+
+  private MappedRecordSpliterator(Path file, Charset charset, char delimiter, ArchiveField id,
+                                  Map<Term, ArchiveField> fields, Term rowType, boolean replaceNulls,
+                                  boolean replaceEntities, long minSplitSize, Queue<MappedRecordIterator> opened,
+                                  long start, long end) {
+    this.file = file;
+    this.charset = charset;
+    this.delimiter = delimiter;
+    this.id = id;
+    this.fields = fields;
+    this.rowType = rowType;
+    this.replaceNulls = replaceNulls;
+    this.replaceEntities = replaceEntities;
+    this.minSplitSize = minSplitSize;
+    this.opened = opened;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * @return the position of the first line after the header lines
+   */
+  private static long dataStart(Path file, Charset charset, char delimiter, int headerLines) throws IOException {
+    try (MappedRecordIterator it = new MappedRecordIterator(file, charset, delimiter, headerLines, null,
+        null, null, false, false)) {
+      return it.position();
+    }
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Record> action) {
+    if (iterator == null) {
+      if (start >= end) {
+        return false;
+      }
+      try {
+        iterator = new MappedRecordIterator(file, charset, delimiter, 0, start, end, id, fields, rowType,
+          replaceNulls, replaceEntities, false, MappedRecordIterator.DEFAULT_WINDOW_SIZE);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      opened.add(iterator);
+    }
+    if (iterator.hasNext()) {
+      action.accept(iterator.next());
+      return true;
+    }
+    start = end;
+    try {
+      iterator.close();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return false;
+  }
+
+  /**
+   * Splits off the first half of the remaining range, ending after the first newline following the middle.
+   * Ranges are no longer split once reading has started.
+   */
+  @Override
+  public Spliterator<Record> trySplit() {
+    if (iterator != null || end - start < 2 * minSplitSize) {
+      return null;
+    }
+    long split;
+    try {
+      split = nextLineStart(start + (end - start) / 2);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    if (split <= start || split >= end) {
+      return null;
+    }
+    Spliterator<Record> prefix = new MappedRecordSpliterator(file, charset, delimiter, id, fields, rowType,
+      replaceNulls, replaceEntities, minSplitSize, opened, start, split);
+    start = split;
+    return prefix;
+  }
+
+  /**
+   * @return the position after the first newline at or after the given position, or the end of the range
+   */
+  private long nextLineStart(long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (position < end) {
+        buffer.clear();
+        int read = channel.read(buffer, position);
+        if (read <= 0) {
+          break;
+        }
+        int i = ByteScanner.indexOf(buffer.array(), 0, read, NEWLINE, NEWLINES);
+        if (i >= 0) {
+          return position + i + 1;
+        }
+        position += read;
+      }
+    }
+    return end;
+  }
+
+  @Override
+  public long estimateSize() {
+    // the number of bytes, which is larger than the number of records
+    return Math.max(0, end - start);
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL;
+  }
+
+  /**
+   * Closes all iterators opened by this spliterator and its splits.
+   */
+  void close() throws IOException {
+    IOException failure = null;
+    MappedRecordIterator it;
+    while ((it = opened.poll()) != null) {
+      try {
+        it.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.RecordSchema;
+import org.gbif.dwc.terms.Term;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reads single lines of data files as records with positional reads, e.g. lines found in an index.
+ * Lines are addressed by their position within the concatenation of all data files of the {@link ArchiveFile}.
+ *
+ * The data files must be {@link ArchiveFile#isIndexable() indexable}, so lines can be split on their raw bytes like
+ * {@link ByteRecordIterator} does.
+ *
+ * Lines can be read concurrently. An interrupt during a read closes the channel of the data file for all threads, so
+ * the channel is opened again and only the read of the interrupted thread fails.
+ */
+final class PositionalRecordReader implements Closeable {
+
+  private final RecordSchema schema;
+  private final Term rowType;
+  private final Charset charset;
+  private final byte delimiter;
+  private final long delimiters;
+  private final boolean replaceNulls;
+  private final boolean replaceEntities;
+
+  private final List<File> files;
+  // position of each data file within the concatenation of all data files
+  private final long[] fileStarts;
+  private final AtomicReferenceArray<FileChannel> channels;
+  private boolean closed;
+
+  /**
+   * Opens the data files of the archive file.
+   *
+   * @param terms           the terms to read, or null to read all terms
+   * @param replaceNulls    if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
+   * @param replaceEntities if true HTML & XML entities in record values will be replaced with the interpreted value.
+   */
+  PositionalRecordReader(ArchiveFile archiveFile, Set<Term> terms, boolean replaceNulls, boolean replaceEntities)
+      throws IOException {
+    this.schema = RecordSchema.of(archiveFile.getId(), archiveFile.getFields(terms));
+    this.rowType = archiveFile.getRowType();
+    this.charset = Charset.forName(archiveFile.getEncoding());
+    this.delimiter = (byte) archiveFile.getFieldsTerminatedByChar();
+    this.delimiters = ByteScanner.broadcast(delimiter);
+    this.replaceNulls = replaceNulls;
+    this.replaceEntities = replaceEntities;
+    this.files = archiveFile.getLocationFiles();
+    this.fileStarts = fileStarts(files);
+    this.channels = new AtomicReferenceArray<>(files.size());
+    try {
+      for (int f = 0; f < files.size(); f++) {
+        channels.set(f, FileChannel.open(files.get(f).toPath(), StandardOpenOption.READ));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the position of each file within the concatenation of all files
+   */
+  static long[] fileStarts(List<File> files) {
+    long[] starts = new long[files.size()];
+    long start = 0;
+    for (int f = 0; f < files.size(); f++) {
+      starts[f] = start;
+      start += files.get(f).length();
+    }
+    return starts;
+  }
+
+  /**
+   * Reads the line at the position within all data files as a record.
+   *
+   * @param position the position of the first byte of the line
+   * @param length   the length of the line, without its terminator
+   */
+  Record read(long position, int length) throws IOException {
+    int f = Arrays.binarySearch(fileStarts, position);
+    if (f < 0) {
+      f = -f - 2;
+    }
+    // several files start at the same position if some are empty
+    while (f + 1 < fileStarts.length && fileStarts[f + 1] == position) {
+      f++;
+    }
+    ByteBuffer line = ByteBuffer.allocate(length);
+    long filePosition = position - fileStarts[f];
+    while (line.hasRemaining()) {
+      FileChannel channel = channels.get(f);
+      int read;
+      try {
+        read = channel.read(line, filePosition + line.position());
+      } catch (ClosedByInterruptException e) {
+        reopen(f, channel);
+        throw e;
+      } catch (ClosedChannelException e) {
+        // closed by an interrupt of another thread
+        if (!reopen(f, channel)) {
+          throw e;
+        }
+        continue;
+      }
+      if (read < 0) {
+        throw new IOException("File " + files.get(f) + " changed after it was indexed");
+      }
+    }
+
+    int[] offsets = new int[8];
+    int columns = 0;
+    offsets[columns++] = 0;
+    byte[] bytes = line.array();
+    int i = ByteScanner.indexOf(bytes, 0, length, delimiter, delimiters);
+    while (i >= 0) {
+      if (columns + 1 >= offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      offsets[columns++] = i + 1;
+      i = ByteScanner.indexOf(bytes, i + 1, length, delimiter, delimiters);
+    }
+    offsets[columns] = length + 1;
+    return new MappedRecord(schema, rowType, replaceNulls, replaceEntities, line, charset, offsets, columns);
+  }
+
+  /**
+   * Opens the channel of a data file again, unless another thread did so already.
+   *
+   * @param closedChannel the channel found closed
+   * @return false if the reader is closed
+   */
+  private synchronized boolean reopen(int f, FileChannel closedChannel) throws IOException {
+    if (closed) {
+      return false;
+    }
+    if (channels.get(f) == closedChannel) {
+      channels.set(f, FileChannel.open(files.get(f).toPath(), StandardOpenOption.READ));
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    IOException failure = null;
+    for (int f = 0; f < channels.length(); f++) {
+      FileChannel channel = channels.get(f);
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
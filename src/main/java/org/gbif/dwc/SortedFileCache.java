@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.text.RandomStringGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directory holding the sorted files of data files, instead of writing them next to the data files, e.g. on a fast
+ * local disk. Archives on read-only mounts can then be iterated as star records, and copies of the same archive,
+ * or different processes, share the sorted files.
+ *
+ * Sorted files are keyed by the content of the data files they were sorted from and by the sort options, so they never
+ * need to be checked for changes of the data files. Lock and temporary files are created within the cache directory,
+ * lock files are kept when sorted files are evicted as other processes might hold their lock.
+ *
+ * The least recently used sorted files are deleted once the sorted files exceed the maximum size. Files are only
+ * deleted holding their lock, so they are not deleted while they are sorted, checked or opened. A sorted file can be
+ * deleted once another archive has opened it, which keeps working on POSIX file systems, so the maximum size should
+ * leave room for the archives read concurrently.
+ */
+public class SortedFileCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SortedFileCache.class);
+
+  private static final String SORTED_SUFFIX = "-sorted";
+  private static final RandomStringGenerator RANDOM_STRING_GENERATOR =
+      new RandomStringGenerator.Builder()
+          .withinRange('a', 'z')
+          .get();
+
+  private final File directory;
+  private final long maxBytes;
+
+  /**
+   * @param directory the cache directory, created if it doesn't exist
+   * @param maxBytes  the maximum total size of the sorted files
+   */
+  public SortedFileCache(File directory, long maxBytes) {
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("Maximum size must be positive");
+    }
+    this.directory = Objects.requireNonNull(directory, "A cache directory is required");
+    this.maxBytes = maxBytes;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @param dataFiles the data files to sort
+   * @param options   the options determining the content of the sorted file, e.g. the sort column and delimiters
+   * @return the key of the sorted file of the data files
+   */
+  static String key(List<File> dataFiles, String options) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(DataFileManifest.of(dataFiles).getBytes(StandardCharsets.UTF_8));
+      digest.update(options.getBytes(StandardCharsets.UTF_8));
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest()) {
+        key.append(String.format("%02x", b));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  /**
+   * @return the sorted file of the key, which might not exist yet
+   */
+  File sortedFile(String key) throws IOException {
+    Files.createDirectories(directory.toPath());
+    return new File(directory, key + SORTED_SUFFIX);
+  }
+
+  /**
+   * @return the file locked while the sorted file of the key is created
+   */
+  File lockFile(String key) throws IOException {
+    Files.createDirectories(directory.toPath());
+    return lockFileOf(new File(directory, key + SORTED_SUFFIX));
+  }
+
+  /**
+   * @return the file locked while the sorted file is created, checked, opened or evicted
+   */
+  File lockFileOf(File sortedFile) {
+    String name = sortedFile.getName();
+    return new File(sortedFile.getParentFile(), name.substring(0, name.length() - SORTED_SUFFIX.length()) + "-lock");
+  }
+
+  /**
+   * @return a new temporary file to sort into, moved to the sorted file once it is complete
+   */
+  File temporaryFile(String key) {
+    return new File(directory, key + SORTED_SUFFIX + "_" + RANDOM_STRING_GENERATOR.generate(10));
+  }
+
+  /**
+   * Marks the sorted file as used, so it is evicted after files which were used less recently.
+   *
+   * @return false if the sorted file doesn't exist, e.g. because it was evicted
+   */
+  boolean touch(File sortedFile) throws IOException {
+    try {
+      Files.setLastModifiedTime(sortedFile.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Deletes the least recently used sorted files until the sorted files don't exceed the maximum size.
+   * Files locked by other threads or processes are skipped.
+   *
+   * @param keep a sorted file which is kept even if it exceeds the maximum size on its own, e.g. the file just created
+   */
+  void evict(File keep) throws IOException {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SORTED_SUFFIX));
+    if (files == null) {
+      return;
+    }
+    List<File> sortedFiles = new ArrayList<>();
+    long total = 0;
+    for (File f : files) {
+      sortedFiles.add(f);
+      total += f.length();
+    }
+    sortedFiles.sort(Comparator.comparingLong(File::lastModified));
+    for (File f : sortedFiles) {
+      if (total <= maxBytes) {
+        break;
+      }
+      if (f.equals(keep)) {
+        continue;
+      }
+      long size = f.length();
+      boolean evicted = FileLocks.tryLocked(lockFileOf(f), () -> Files.deleteIfExists(f.toPath()));
+      if (evicted) {
+        total -= size;
+        LOG.debug("Evicted sorted file {} ({}B) from the cache", f, size);
+      } else {
+        LOG.debug("Sorted file {} is in use, not evicted from the cache", f);
+      }
+    }
+  }
+}
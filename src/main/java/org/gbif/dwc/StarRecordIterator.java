@@ -21,6 +21,7 @@ import org.gbif.utils.file.ClosableIterator;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -34,6 +35,8 @@ import org.apache.commons.lang3.StringUtils;
 
 /**
  * {@link ClosableIterator} of {@link StarRecord} which includes the core record and all its extension records.
+ * Extension records are merged from extension iterators sorted by id like the core, or found with
+ * {@link ExtensionLookup lookups} by core id.
  */
 class StarRecordIterator implements ClosableIterator<StarRecord> {
 
@@ -42,9 +45,16 @@ class StarRecordIterator implements ClosableIterator<StarRecord> {
   private final Set<ClosableIterator<?>> closeable = new HashSet<>();
   private final Map<Term, PeekingIterator<Record>> extensionIters = new HashMap<>();
   private final Map<Term, Integer> extensionRecordsSkipped = new HashMap<>();
+  private final List<? extends ExtensionLookup> extensionLookups;
 
   StarRecordIterator(ClosableIterator<Record> coreIt, Map<Term, ClosableIterator<Record>> extensionIts) {
+    this(coreIt, extensionIts, Collections.emptyList());
+  }
+
+  StarRecordIterator(ClosableIterator<Record> coreIt, Map<Term, ClosableIterator<Record>> extensionIts,
+                     List<? extends ExtensionLookup> extensionLookups) {
     coreIter = coreIt;
+    this.extensionLookups = extensionLookups;
     List<Term> rowTypes = new ArrayList<>();
 
     if (extensionIts != null) {
@@ -55,11 +65,22 @@ class StarRecordIterator implements ClosableIterator<StarRecord> {
         extensionRecordsSkipped.put(extTerm, 0);
       }
     }
+    for (ExtensionLookup ext : extensionLookups) {
+      rowTypes.add(ext.getRowType());
+    }
     rec = new StarRecordImpl(rowTypes);
   }
 
   @Override
   public void close() throws IOException {
+    IOException failure = null;
+    for (ExtensionLookup ext : extensionLookups) {
+      try {
+        ext.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
 
     try {
       coreIter.close();
@@ -89,6 +110,9 @@ class StarRecordIterator implements ClosableIterator<StarRecord> {
     if (result.isPresent()) {
       throw new IOException(result.get());
     }
+    if (failure != null) {
+      throw failure;
+    }
 
 //    for (Map.Entry<Term, Integer> stringIntegerEntry : extensionRecordsSkipped.entrySet()) {
 //      Integer skipped = stringIntegerEntry.getValue();
@@ -134,6 +158,15 @@ class StarRecordIterator implements ClosableIterator<StarRecord> {
           }
         }
       }
+      for (ExtensionLookup ext : extensionLookups) {
+        try {
+          for (Record extRecord : ext.get(id)) {
+            rec.addRecord(ext.getRowType(), extRecord);
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to read " + ext.getRowType() + " records of " + id, e);
+        }
+      }
     }
 
     return rec;
@@ -0,0 +1,248 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The files of a zipped Darwin Core Archive, read from the central directory of the zip file.
+ * Files are named by their path within the archive as if it had been decompressed by
+ * {@link InternalDwcFileFactory#fromCompressed(Path, Path)}: hidden files and macOS resource forks are ignored,
+ * a single root folder is removed and the backslash legacy IPTs put before each filename is dropped.
+ *
+ * Every opened stream uses its own {@link ZipFile}, so entries can be read concurrently.
+ */
+class ZipArchiveEntries {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZipArchiveEntries.class);
+
+  private final Path zip;
+  // archive file name -> zip entry
+  private final Map<String, ZipEntry> entries;
+
+  /**
+   * @param zip the zip file
+   * @throws java.util.zip.ZipException if the file is not a zip file
+   */
+  ZipArchiveEntries(Path zip) throws IOException {
+    this.zip = zip;
+    List<ZipEntry> visible = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+      Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+      while (zipEntries.hasMoreElements()) {
+        ZipEntry entry = zipEntries.nextElement();
+        if (!entry.isDirectory() && isVisible(entry.getName())) {
+          visible.add(entry);
+        }
+      }
+    }
+    this.entries = Collections.unmodifiableMap(archiveNames(visible));
+  }
+
+  /**
+   * @return false for hidden files or folders, macOS resource forks and names escaping the archive root
+   */
+  private static boolean isVisible(String entryName) {
+    for (String segment : entryName.split("/")) {
+      if (segment.startsWith(".") || segment.equals("__MACOSX")) {
+        return false;
+      }
+    }
+    return !entryName.startsWith("/");
+  }
+
+  /**
+   * Maps archive file names to entry names, removing a single root folder containing all files.
+   */
+  private static Map<String, ZipEntry> archiveNames(List<ZipEntry> zipEntries) {
+    Set<String> roots = new HashSet<>();
+    boolean nested = true;
+    for (ZipEntry entry : zipEntries) {
+      String name = entry.getName();
+      int slash = name.indexOf('/');
+      nested &= slash > 0;
+      roots.add(slash > 0 ? name.substring(0, slash) : name);
+    }
+    boolean flatten = roots.size() == 1 && nested;
+
+    Map<String, ZipEntry> names = new LinkedHashMap<>();
+    for (ZipEntry entry : zipEntries) {
+      String name = entry.getName();
+      String archiveName = flatten ? name.substring(name.lastIndexOf('/') + 1) : name;
+      // Accommodate archives coming from legacy IPTs which put a "\" before each filename
+      if (archiveName.startsWith("\\") && archiveName.indexOf('/') < 0
+          && (archiveName.endsWith(".xml") || archiveName.endsWith(".txt"))) {
+        archiveName = archiveName.substring(1);
+      }
+      names.put(archiveName, entry);
+    }
+    if (flatten) {
+      LOG.debug("Removing single root folder {} found in archive", roots.iterator().next());
+    }
+    return names;
+  }
+
+  /**
+   * @return the zip file
+   */
+  Path getZip() {
+    return zip;
+  }
+
+  /**
+   * @return the names of all files in the archive, relative to the archive root
+   */
+  Set<String> names() {
+    return entries.keySet();
+  }
+
+  /**
+   * @param name a file name relative to the archive root, using "/" as separator
+   * @return true if the archive contains the file
+   */
+  boolean contains(String name) {
+    return entries.containsKey(name);
+  }
+
+  /**
+   * @param name a file name relative to the archive root, using "/" as separator
+   * @return the uncompressed size of the file, or -1 if it is unknown or the archive does not contain the file
+   */
+  long size(String name) {
+    ZipEntry entry = entries.get(name);
+    return entry == null ? -1 : entry.getSize();
+  }
+
+  /**
+   * Opens a stream decompressing the file. Closing the stream also closes the zip file it was read from.
+   *
+   * @param name a file name relative to the archive root, using "/" as separator
+   * @throws FileNotFoundException if the archive does not contain the file
+   */
+  InputStream open(String name) throws IOException {
+    ZipEntry entry = entries.get(name);
+    if (entry == null) {
+      throw new FileNotFoundException("File " + name + " does not exist in " + zip);
+    }
+    ZipFile zipFile = new ZipFile(zip.toFile());
+    try {
+      return new FilterInputStream(zipFile.getInputStream(zipFile.getEntry(entry.getName()))) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            zipFile.close();
+          }
+        }
+      };
+    } catch (IOException | RuntimeException e) {
+      zipFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Decompresses the file to the target, which is only created once the file is completely decompressed.
+   *
+   * @param name   a file name relative to the archive root, using "/" as separator
+   * @param target the file to write
+   */
+  void extract(String name, File target) throws IOException {
+    Files.createDirectories(target.getParentFile().toPath());
+    Path tmp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), "-extracting");
+    try (InputStream in = open(name)) {
+      Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    LOG.debug("Extracted {} from {} to {}", name, zip, target);
+  }
+
+  /**
+   * Decompresses the files into the directory, decompressing independent files concurrently.
+   * The largest files are started first, so that they don't delay the end of the extraction.
+   * Files which already exist in the directory are kept, as extracted files only appear once they are complete.
+   *
+   * @param directory the directory to extract to, files are named by their name relative to the archive root
+   * @param filter    selects the names of the files to extract
+   * @param threads   the maximum number of files decompressed concurrently
+   */
+  void extractAll(File directory, Predicate<String> filter, int threads) throws IOException {
+    List<String> names = new ArrayList<>();
+    for (String name : entries.keySet()) {
+      if (filter.test(name) && !new File(directory, name).exists()) {
+        names.add(name);
+      }
+    }
+    names.sort(Comparator.comparingLong((String name) -> entries.get(name).getSize()).reversed());
+
+    Path root = directory.toPath().toAbsolutePath().normalize();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, names.size())));
+    try {
+      List<Future<?>> extractions = new ArrayList<>();
+      for (String name : names) {
+        Path target = root.resolve(name).normalize();
+        if (!target.startsWith(root)) {
+          throw new IOException("Zip entry " + name + " is outside of the target directory");
+        }
+        extractions.add(executor.submit(() -> {
+          extract(name, target.toFile());
+          return null;
+        }));
+      }
+      for (Future<?> extraction : extractions) {
+        extraction.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to extract " + zip, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting " + zip);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
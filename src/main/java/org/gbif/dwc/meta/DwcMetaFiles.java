@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -94,4 +95,15 @@ public class DwcMetaFiles {
     }
     return Optional.empty();
   }
+
+  /**
+   * Try to find a metadata file among the names of the files of a DarwinCore archive, e.g. the entries of a zip file.
+   * The test is strictly based on the file name.
+   *
+   * @param fileNames names of the files relative to the archive root
+   * @return name of the possible metadata file or @{code Optional.empty()} if none were found.
+   */
+  public static Optional<String> discoverMetadataFile(Collection<String> fileNames) {
+    return POSSIBLE_METADATA_FILE.stream().filter(fileNames::contains).findFirst();
+  }
 }
@@ -13,26 +13,67 @@
  */
 package org.gbif.dwc.record;
 
-import java.util.regex.Pattern;
-
 import org.apache.commons.text.StringEscapeUtils;
 
 public class CleanUtils {
-  private static final Pattern NULL_REPL = Pattern.compile("^\\s*(null|\\\\N)?\\s*$", Pattern.CASE_INSENSITIVE);
 
   private CleanUtils() {
   }
 
   /**
    * Does basic entity replacements if requested to string values.
+   * Values without literal nulls or entities are returned as they are, without creating new objects.
    * @param value the original string
    * @param nulls if true replaces common, literal NULL values with real nulls, e.g. "\N" or "NULL"
    * @param entities if true replaces html4, xml and numerical entities with their unicode character
    */
   public static String clean(String value, boolean nulls, boolean entities) {
-    if (value == null || (nulls && NULL_REPL.matcher(value).find()) ) {
+    if (value == null || (nulls && isNullLiteral(value))) {
       return null;
     }
-    return entities ? StringEscapeUtils.unescapeHtml4(value) : value;
+    // entities always start with an ampersand
+    return entities && value.indexOf('&') >= 0 ? StringEscapeUtils.unescapeHtml4(value) : value;
+  }
+
+  /**
+   * Tests for a blank value, or a case insensitive "null" or "\N" surrounded by optional whitespace.
+   * Equivalent to the regular expression {@code ^\s*(null|\\N)?\s*$}.
+   */
+  static boolean isNullLiteral(String value) {
+    int start = 0;
+    int end = value.length();
+    while (start < end && isWhitespace(value.charAt(start))) {
+      start++;
+    }
+    while (end > start && isWhitespace(value.charAt(end - 1))) {
+      end--;
+    }
+    switch (end - start) {
+      case 0:
+        return true;
+      case 2:
+        return value.charAt(start) == '\\' && isLetterIgnoreCase(value.charAt(start + 1), 'n');
+      case 4:
+        return isLetterIgnoreCase(value.charAt(start), 'n')
+          && isLetterIgnoreCase(value.charAt(start + 1), 'u')
+          && isLetterIgnoreCase(value.charAt(start + 2), 'l')
+          && isLetterIgnoreCase(value.charAt(start + 3), 'l');
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Whitespace as matched by \s in a regular expression.
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  /**
+   * @param lower a lower case ASCII letter
+   */
+  private static boolean isLetterIgnoreCase(char c, char lower) {
+    return (c | 0x20) == lower;
   }
 }
@@ -17,6 +17,7 @@ import org.gbif.dwc.ArchiveField;
 import org.gbif.dwc.ArchiveFile;
 import org.gbif.dwc.terms.Term;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -26,33 +27,40 @@ import org.apache.commons.lang3.StringUtils;
 
 public class RecordImpl implements Record {
 
+  // the precompiled schema, or null if terms are resolved through the fields the record was created with
+  private final RecordSchema schema;
   private final ArchiveField id;
   private final Map<Term, ArchiveField> fields;
   protected String[] row;
   private final Term rowType;
   private final boolean replaceNulls;
   private final boolean replaceEntities;
+  // cleaned column values of the current row, filled on first access
+  private String[] cleaned;
+  private boolean[] isCleaned;
 
   /**
+   * Resolves terms through the fields, like {@link #RecordImpl(ArchiveField, Map, Term, boolean, boolean)}.
+   * Records sharing the fields of a data file are better created with a {@link RecordSchema}, see
+   * {@link #RecordImpl(RecordSchema, Term, boolean, boolean)}.
+   *
    * @param replaceNulls if true record values will have literal nulls replaced with NULL.
    * @param replaceEntities if true html & xml entities in record values will be replaced with the interpreted value.
    */
   public RecordImpl(ArchiveField id, Collection<ArchiveField> fields, Term rowType, boolean replaceNulls, boolean replaceEntities) {
-    this.id = id;
-    this.fields = new HashMap<>();
-    for (ArchiveField f : fields) {
-      this.fields.put(f.getTerm(), f);
-    }
-    this.rowType = rowType;
-    this.replaceNulls = replaceNulls;
-    this.replaceEntities = replaceEntities;
+    this(id, fieldsByTerm(fields), rowType, replaceNulls, replaceEntities);
   }
 
   /**
+   * Resolves terms through the fields map, which is not copied, so the record sees later changes of the fields.
+   * Records sharing the fields of a data file are better created with a {@link RecordSchema}, see
+   * {@link #RecordImpl(RecordSchema, Term, boolean, boolean)}.
+   *
    * @param replaceNulls if true record values will have literal nulls replaced with NULL.
    * @param replaceEntities if true html & xml entities in record values will be replaced with the interpreted value.
    */
   public RecordImpl(ArchiveField id, Map<Term, ArchiveField> fields, Term rowType, boolean replaceNulls, boolean replaceEntities) {
+    this.schema = null;
     this.id = id;
     this.fields = fields;
     this.rowType = rowType;
@@ -65,30 +73,67 @@ public class RecordImpl implements Record {
    * @param replaceEntities if true html & xml entities in record values will be replaced with the interpreted value.
    */
   public RecordImpl(ArchiveFile af, boolean replaceNulls, boolean replaceEntities) {
-    this.id = af.getId();
-    this.fields = af.getFields();
-    this.rowType = af.getRowType();
+    this(af.getSchema(), af.getRowType(), replaceNulls, replaceEntities);
+  }
+
+  /**
+   * @param schema the precompiled schema, usually shared by all records of a data file
+   * @param replaceNulls if true record values will have literal nulls replaced with NULL.
+   * @param replaceEntities if true html & xml entities in record values will be replaced with the interpreted value.
+   */
+  public RecordImpl(RecordSchema schema, Term rowType, boolean replaceNulls, boolean replaceEntities) {
+    this.schema = schema;
+    this.id = null;
+    this.fields = null;
+    this.rowType = rowType;
     this.replaceNulls = replaceNulls;
     this.replaceEntities = replaceEntities;
   }
 
   @Override
   public String column(int index) {
-    if (row.length > index) {
-      // if requested return column value cleaned
-      return CleanUtils.clean(row[index], replaceNulls, replaceEntities);
+    int columns = columns();
+    if (columns > index) {
+      if (cleaned == null || cleaned.length < columns) {
+        cleaned = new String[columns];
+        isCleaned = new boolean[columns];
+      }
+      if (!isCleaned[index]) {
+        // if requested return column value cleaned
+        cleaned[index] = CleanUtils.clean(rawColumn(index), replaceNulls, replaceEntities);
+        isCleaned[index] = true;
+      }
+      return cleaned[index];
     }
     return null;
   }
 
+  /**
+   * @return the number of columns in the current row
+   */
+  protected int columns() {
+    return row.length;
+  }
+
+  /**
+   * @return the column value as found in the data file, without any replacements
+   */
+  protected String rawColumn(int index) {
+    return row[index];
+  }
+
   public boolean hasRow() {
     return this.row != null;
   }
 
   @Override
   public String id() {
-    if (id != null) {
-      return column(id.getIndex());
+    if (schema == null) {
+      return id == null || id.getIndex() == null ? null : column(id.getIndex());
+    }
+    int index = schema.idIndex();
+    if (index >= 0) {
+      return column(index);
     }
     return null;
   }
@@ -100,6 +145,17 @@ public class RecordImpl implements Record {
 
   public void setRow(String[] row) {
     this.row = row;
+    clearCleaned();
+  }
+
+  /**
+   * Forgets the cleaned column values, to be called whenever the current row changes.
+   */
+  protected void clearCleaned() {
+    if (isCleaned != null) {
+      Arrays.fill(cleaned, null);
+      Arrays.fill(isCleaned, false);
+    }
   }
 
   @Override
@@ -124,6 +180,24 @@ public class RecordImpl implements Record {
     return null;
   }
 
+  private String value(int slot) {
+    if (slot >= 0) {
+      int index = schema.index(slot);
+      if (index < 0) {
+        // if no column mapped use default "global" value
+        return schema.defaultValue(slot);
+      }
+      String val = column(index);
+      if (StringUtils.isBlank(val)) {
+        // if column is empty use default value
+        return schema.defaultValue(slot);
+      }
+      // otherwise return already cleaned column value
+      return val;
+    }
+    return null;
+  }
+
   /**
    * Returns core data file values based on a term concept.
    *
@@ -134,11 +208,22 @@ public class RecordImpl implements Record {
     if (term == null) {
       return null;
     }
-    return value(fields.get(term));
+    if (schema == null) {
+      return value(fields.get(term));
+    }
+    return value(schema.slot(term));
   }
 
   @Override
   public Set<Term> terms() {
-    return fields.keySet();
+    return schema != null ? schema.terms() : fields.keySet();
+  }
+
+  private static Map<Term, ArchiveField> fieldsByTerm(Collection<ArchiveField> fields) {
+    Map<Term, ArchiveField> fieldsByTerm = new HashMap<>();
+    for (ArchiveField f : fields) {
+      fieldsByTerm.put(f.getTerm(), f);
+    }
+    return fieldsByTerm;
   }
 }
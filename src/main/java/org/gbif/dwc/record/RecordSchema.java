@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc.record;
+
+import org.gbif.dwc.ArchiveField;
+import org.gbif.dwc.terms.Term;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, precompiled mapping of terms to the columns of a data file, shared by all records of the file.
+ * Each term is given a dense slot with its column index (or -1 if the term has no column) and its default value,
+ * so that term based access to a record is reduced to array indexing.
+ *
+ * Terms are first looked up by identity, which avoids computing the hash code of terms such as
+ * {@link org.gbif.dwc.extensions.ExtensionProperty} for the term instances used to build the schema.
+ * Other instances of an equal term are found by equality.
+ * The schema is a snapshot of the fields it was compiled from, later changes to the fields are not reflected.
+ */
+public final class RecordSchema {
+
+  private static final int NO_COLUMN = -1;
+
+  private final int idIndex;
+  private final Set<Term> terms;
+  private final int[] indexes;
+  private final String[] defaultValues;
+  // open addressing table of term instances to slots, compared by identity
+  private final Term[] identityKeys;
+  private final int[] identitySlots;
+  private final Map<Term, Integer> slotsByEquality;
+
+  private RecordSchema(ArchiveField id, Map<Term, ArchiveField> fields) {
+    this.idIndex = index(id);
+    int size = fields.size();
+    indexes = new int[size];
+    defaultValues = new String[size];
+    identityKeys = new Term[tableSize(size)];
+    identitySlots = new int[identityKeys.length];
+    slotsByEquality = new HashMap<>();
+    Set<Term> terms = new LinkedHashSet<>();
+
+    int slot = 0;
+    for (Map.Entry<Term, ArchiveField> field : fields.entrySet()) {
+      Term term = field.getKey();
+      if (term == null || field.getValue() == null) {
+        continue;
+      }
+      indexes[slot] = index(field.getValue());
+      defaultValues[slot] = field.getValue().getDefaultValue();
+      slotsByEquality.put(term, slot);
+      terms.add(term);
+      int i = bucket(term);
+      while (identityKeys[i] != null) {
+        i = (i + 1) & (identityKeys.length - 1);
+      }
+      identityKeys[i] = term;
+      identitySlots[i] = slot;
+      slot++;
+    }
+    this.terms = Collections.unmodifiableSet(terms);
+  }
+
+  /**
+   * Compiles the schema of a data file.
+   *
+   * @param id     the id field, or null
+   * @param fields the fields keyed by their term
+   */
+  public static RecordSchema of(ArchiveField id, Map<Term, ArchiveField> fields) {
+    return new RecordSchema(id, fields);
+  }
+
+  /**
+   * Compiles the schema of a data file.
+   * If several fields share a term, the last one is used.
+   *
+   * @param id     the id field, or null
+   * @param fields the fields
+   */
+  public static RecordSchema of(ArchiveField id, Collection<ArchiveField> fields) {
+    Map<Term, ArchiveField> fieldsByTerm = new LinkedHashMap<>();
+    for (ArchiveField f : fields) {
+      fieldsByTerm.put(f.getTerm(), f);
+    }
+    return new RecordSchema(id, fieldsByTerm);
+  }
+
+  private static int index(ArchiveField f) {
+    return f == null || f.getIndex() == null ? NO_COLUMN : f.getIndex();
+  }
+
+  /**
+   * @return a power of two at least twice as large as the number of terms
+   */
+  private static int tableSize(int size) {
+    int tableSize = 2;
+    while (tableSize < size * 2) {
+      tableSize <<= 1;
+    }
+    return tableSize;
+  }
+
+  private int bucket(Term term) {
+    int h = System.identityHashCode(term);
+    return (h ^ (h >>> 16)) & (identityKeys.length - 1);
+  }
+
+  /**
+   * @return the slot of the term, or -1 if the term is not part of the schema
+   */
+  public int slot(Term term) {
+    if (term == null) {
+      return -1;
+    }
+    for (int i = bucket(term); identityKeys[i] != null; i = (i + 1) & (identityKeys.length - 1)) {
+      if (identityKeys[i] == term) {
+        return identitySlots[i];
+      }
+    }
+    if (term instanceof Enum) {
+      // enum terms are only equal to themselves
+      return -1;
+    }
+    Integer slot = slotsByEquality.get(term);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * @return the column index of the slot, or -1 if the term has no column and only a default value
+   */
+  public int index(int slot) {
+    return indexes[slot];
+  }
+
+  /**
+   * @return the default value of the slot, or null
+   */
+  public String defaultValue(int slot) {
+    return defaultValues[slot];
+  }
+
+  /**
+   * @return the column index of the id, or -1 if there is no id column
+   */
+  public int idIndex() {
+    return idIndex;
+  }
+
+  /**
+   * @return the terms of the schema, in the order of their slots
+   */
+  public Set<Term> terms() {
+    return terms;
+  }
+}
@@ -16,18 +16,31 @@ package org.gbif.dwc;
 import org.gbif.dwc.record.Record;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
+import org.gbif.utils.file.ClosableIterator;
 import org.gbif.utils.file.FileUtils;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -60,6 +73,123 @@ public class ArchiveFileTest {
     assertEquals("3082", last.id());
   }
 
+  @Test
+  public void testMappedIterator() throws UnsupportedArchiveException, IOException {
+    ArchiveFile af = getCore("archive-dwc/DarwinCore.txt");
+    assertTrue(af.isMemoryMappable());
+
+    int counter = 0;
+    try (ClosableIterator<Record> it = af.iterator(); ClosableIterator<Record> mapped = af.mappedIterator(true, true)) {
+      while (it.hasNext()) {
+        assertTrue(mapped.hasNext());
+        Record rec = it.next();
+        Record mrec = mapped.next();
+        counter++;
+        assertEquals(rec.id(), mrec.id());
+        for (Term t : af.getTerms()) {
+          assertEquals(rec.value(t), mrec.value(t));
+        }
+      }
+      assertFalse(mapped.hasNext());
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    assertEquals(3248, counter);
+
+    // quoted files use the regular reader
+    af.setFieldsEnclosedBy('"');
+    assertFalse(af.isMemoryMappable());
+  }
+
+  @Test
+  public void testProjectedIterator() throws UnsupportedArchiveException, IOException {
+    // quoted file read through the tabular reader
+    ArchiveFile af = getCore("csv_always_quoted.csv");
+    assertFalse(af.isMemoryMappable());
+    Set<Term> terms = new HashSet<>(Arrays.asList(DwcTerm.scientificName, DwcTerm.locality));
+
+    int counter = 0;
+    try (ClosableIterator<Record> it = af.iterator(); ClosableIterator<Record> projected = af.iterator(terms, true, true)) {
+      while (it.hasNext()) {
+        Record rec = it.next();
+        Record prec = projected.next();
+        counter++;
+        assertEquals(rec.id(), prec.id());
+        assertEquals(rec.value(DwcTerm.scientificName), prec.value(DwcTerm.scientificName));
+        assertEquals(rec.value(DwcTerm.locality), prec.value(DwcTerm.locality));
+        assertNotNull(rec.value(DwcTerm.catalogNumber));
+        assertNull(prec.value(DwcTerm.catalogNumber));
+        assertEquals(terms, prec.terms());
+      }
+      assertFalse(projected.hasNext());
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    assertTrue(counter > 0);
+  }
+
+  @Test
+  public void testReusingIterator() throws UnsupportedArchiveException, IOException {
+    // quoted file read through the tabular reader
+    assertReusingIterator(getCore("csv_always_quoted.csv"), null);
+    // unquoted file read through a memory mapped buffer
+    assertReusingIterator(getCore("archive-dwc/DarwinCore.txt"),
+        new HashSet<>(Arrays.asList(DwcTerm.scientificName, DwcTerm.basisOfRecord)));
+  }
+
+  private void assertReusingIterator(ArchiveFile af, Set<Term> terms) throws IOException {
+    int counter = 0;
+    Record first = null;
+    try (ClosableIterator<Record> it = af.iterator(terms, true, true);
+         ClosableIterator<Record> reusing = af.reusingIterator(terms, true, true)) {
+      while (it.hasNext()) {
+        Record rec = it.next();
+        Record rrec = reusing.next();
+        if (first == null) {
+          first = rrec;
+        }
+        counter++;
+        assertSame(first, rrec);
+        assertEquals(rec.id(), rrec.id());
+        for (Term term : rec.terms()) {
+          assertEquals(rec.value(term), rrec.value(term));
+        }
+      }
+      assertFalse(reusing.hasNext());
+      assertNull(reusing.next());
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    assertTrue(counter > 1);
+  }
+
+  @Test
+  public void testStream() throws UnsupportedArchiveException, IOException {
+    // split into byte ranges
+    assertStream(getCore("archive-dwc/DarwinCore.txt"));
+    // quoted file read through a single iterator
+    assertStream(getCore("csv_always_quoted.csv"));
+  }
+
+  private void assertStream(ArchiveFile af) throws IOException {
+    List<String> ids = new ArrayList<>();
+    try (ClosableIterator<Record> it = af.iterator()) {
+      while (it.hasNext()) {
+        ids.add(it.next().id());
+      }
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    assertTrue(ids.size() > 1);
+
+    try (Stream<Record> stream = af.stream()) {
+      assertEquals(ids, stream.map(Record::id).collect(Collectors.toList()));
+    }
+    try (Stream<Record> stream = af.parallelStream()) {
+      assertEquals(ids, stream.map(Record::id).collect(Collectors.toList()));
+    }
+  }
+
   @Test
   public void testRowTypeEquivalence() {
     ArchiveFile af = new ArchiveFile();
@@ -104,6 +234,83 @@ public class ArchiveFileTest {
     assertFalse(archiveFile.getDefaultValues().isPresent());
   }
 
+  /**
+   * Files already in id order are linked as the sorted file instead of being sorted.
+   */
+  @Test
+  public void testNormalizeAndSortAlreadySorted(@TempDir Path dir) throws Exception {
+    Path tab = dir.resolve("sorted.txt");
+    Files.write(tab, Arrays.asList("taxonID\tscientificName", "1\tAbies", "10\tPicea", "2\tPinus", "2\tLarix"));
+    ArchiveFile af = DwcFiles.fromLocation(tab).getCore();
+
+    assertTrue(af.normalizeAndSort());
+    Path sorted = ArchiveFile.getLocationFileSorted(tab.toFile()).toPath();
+    assertTrue(Files.isSameFile(tab, sorted));
+    assertFalse(af.normalizeAndSort());
+
+    // unsorted files are sorted again once they change
+    Files.delete(sorted);
+    Files.write(tab, Arrays.asList("taxonID\tscientificName", "2\tPinus", "1\tAbies"));
+    assertTrue(af.normalizeAndSort());
+    assertFalse(Files.isSameFile(tab, sorted));
+    assertEquals(Arrays.asList("taxonID\tscientificName", "1\tAbies", "2\tPinus"), Files.readAllLines(sorted));
+  }
+
+  /**
+   * Sorted files are only created again if the content of the data file changed, regardless of modification times.
+   */
+  @Test
+  public void testNormalizeAndSortContentChanges(@TempDir Path dir) throws Exception {
+    Path tab = dir.resolve("unsorted.txt");
+    Files.write(tab, Arrays.asList("taxonID\tscientificName", "2\tPinus", "1\tAbies"));
+    ArchiveFile af = DwcFiles.fromLocation(tab).getCore();
+    assertTrue(af.normalizeAndSort());
+
+    FileTime modified = FileTime.fromMillis(System.currentTimeMillis() + 60_000);
+    Files.setLastModifiedTime(tab, modified);
+    assertFalse(af.normalizeAndSort());
+
+    // same size and modification time, different content
+    Files.write(tab, Arrays.asList("taxonID\tscientificName", "3\tPinus", "1\tAbies"));
+    Files.setLastModifiedTime(tab, modified);
+    assertTrue(af.normalizeAndSort());
+    assertEquals(Arrays.asList("taxonID\tscientificName", "1\tAbies", "3\tPinus"),
+        Files.readAllLines(ArchiveFile.getLocationFileSorted(tab.toFile()).toPath()));
+  }
+
+  /**
+   * Quoted files are normalized while they are sorted, without a normalized copy of the file.
+   */
+  @Test
+  public void testNormalizeAndSortQuoted(@TempDir Path dir) throws Exception {
+    Path csv = dir.resolve("quoted.csv");
+    Files.copy(FileUtils.getClasspathFile("csv_always_quoted.csv").toPath(), csv);
+    ArchiveFile af = DwcFiles.fromLocation(csv).getCore();
+    assertNotNull(af.getFieldsEnclosedBy());
+
+    assertTrue(af.normalizeAndSort());
+    assertFalse(af.normalizeAndSort());
+    assertEquals(Arrays.asList("quoted.csv", "quoted.csv-lock", "quoted.csv-sorted", "quoted.csv-sorted-manifest"),
+        Arrays.stream(dir.toFile().list()).sorted().collect(Collectors.toList()));
+
+    List<String> ids = new ArrayList<>();
+    try (ClosableIterator<Record> it = af.iterator(false, false)) {
+      while (it.hasNext()) {
+        ids.add(it.next().id());
+      }
+    }
+    List<String> sortedIds = new ArrayList<>();
+    try (ClosableIterator<Record> it = af.sortedIterator(false, false)) {
+      while (it.hasNext()) {
+        Record rec = it.next();
+        sortedIds.add(rec.id());
+        assertEquals("Muscardinus avellanarius", rec.value(DwcTerm.scientificName));
+      }
+    }
+    ids.sort(null);
+    assertEquals(ids, sortedIds);
+  }
+
   private ArchiveFile getCore(String testFilePath) throws IOException {
     Archive arch = DwcFiles.fromLocation(FileUtils.getClasspathFile(testFilePath).toPath());
     return arch.getCore();
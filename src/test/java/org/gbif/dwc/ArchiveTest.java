@@ -13,20 +13,41 @@
  */
 package org.gbif.dwc;
 
+import org.gbif.dwc.record.Record;
 import org.gbif.dwc.record.StarRecord;
 import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.GbifTerm;
 import org.gbif.dwc.terms.Term;
+import org.gbif.utils.file.ClosableIterator;
 import org.gbif.utils.file.FileUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ArchiveTest {
 
@@ -98,6 +119,324 @@ public class ArchiveTest {
     assertEquals(6, count);
   }
 
+  /**
+   * Check a core with multiple files and no extensions is read file by file, without sorting.
+   */
+  @Test
+  public void testMultifileWithoutExtensionsIsNotSorted() throws Exception {
+    File dir = FileUtils.getClasspathFile("multifile-multiline-header");
+    Archive arch = DwcFiles.fromLocation(dir.toPath());
+    arch.initialize();
+
+    int count = 0;
+    try (ClosableIterator<Record> it = arch.getCore().iterator()) {
+      while (it.hasNext()) {
+        count++;
+        assertEquals(String.valueOf(count), it.next().id());
+      }
+    }
+    assertEquals(6, count);
+    assertFalse(new File(dir, "taxa1.txt-sorted").exists());
+  }
+
+  /**
+   * Check gzip compressed data files are read and sorted like their plain text versions.
+   */
+  @Test
+  public void testGzippedDataFiles(@TempDir Path dir) throws Exception {
+    File source = FileUtils.getClasspathFile("archive-dwc");
+    for (File f : source.listFiles()) {
+      if (f.getName().endsWith(".txt")) {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve(f.getName() + ".gz")))) {
+          Files.copy(f.toPath(), out);
+        }
+      } else if (f.getName().equals(Archive.META_FN)) {
+        Files.writeString(dir.resolve(f.getName()),
+            Files.readString(f.toPath()).replace(".txt</location>", ".txt.gz</location>"));
+      }
+    }
+
+    Archive plain = DwcFiles.fromLocation(source.toPath());
+    Archive gzipped = DwcFiles.fromLocation(dir);
+    // compressed runs and sorted files
+    gzipped.setSorter(new ExternalSorter(2, 10_000, null, true, true));
+    assertFalse(gzipped.getCore().isMemoryMappable());
+    assertEquals(countStarRecords(plain), countStarRecords(gzipped));
+    assertTrue(Files.size(dir.resolve("DarwinCore.txt.gz-sorted"))
+        < Files.size(source.toPath().resolve("DarwinCore.txt")) / 2);
+
+    int count = 0;
+    try (ClosableIterator<Record> it = gzipped.getCore().iterator()) {
+      while (it.hasNext()) {
+        it.next();
+        count++;
+      }
+    }
+    assertEquals(3248, count);
+    try (Stream<Record> records = gzipped.getCore().parallelStream()) {
+      assertEquals(3248, records.count());
+    }
+  }
+
+  /**
+   * Check the core and extensions are sorted concurrently and all failures are reported.
+   */
+  @Test
+  public void testInitializeAggregatesFailures(@TempDir Path dir) throws Exception {
+    copyArchiveDwc(dir);
+    Archive arch = DwcFiles.fromLocation(dir);
+    arch.setSorter(new ExternalSorter(4, 1_000_000, null));
+    Files.delete(dir.resolve("VernacularName.txt"));
+    Files.delete(dir.resolve("media.txt"));
+
+    IOException e = assertThrows(IOException.class, arch::initialize);
+    assertEquals(1, e.getSuppressed().length);
+    // the core is sorted regardless
+    assertTrue(Files.exists(dir.resolve("DarwinCore.txt-sorted")));
+  }
+
+  /**
+   * Check extensions held in memory are joined to the unsorted core like sorted extensions.
+   */
+  @Test
+  public void testHashJoin(@TempDir Path dir) throws Exception {
+    copyArchiveDwc(dir);
+    Archive sorted = DwcFiles.fromLocation(FileUtils.getClasspathFile("archive-dwc").toPath());
+    Archive joined = DwcFiles.fromLocation(dir);
+    joined.setHashJoinMemoryBudget(100_000_000);
+
+    assertEquals(starRecords(sorted), starRecords(joined));
+    try (Stream<Path> files = Files.list(dir)) {
+      assertTrue(files.noneMatch(f -> f.getFileName().toString().endsWith("-sorted")));
+    }
+
+    // extensions exceeding the budget are sorted
+    joined = DwcFiles.fromLocation(dir);
+    joined.setHashJoinMemoryBudget(1_000);
+    assertEquals(starRecords(sorted), starRecords(joined));
+    assertTrue(Files.exists(dir.resolve("VernacularName.txt-sorted")));
+  }
+
+  /**
+   * Check extensions indexed by id are joined to the unsorted core like sorted extensions.
+   */
+  @Test
+  public void testIndexedExtensions(@TempDir Path dir) throws Exception {
+    copyArchiveDwc(dir);
+    Archive sorted = DwcFiles.fromLocation(FileUtils.getClasspathFile("archive-dwc").toPath());
+    Archive indexed = DwcFiles.fromLocation(dir);
+    indexed.setIndexExtensions(true);
+
+    assertEquals(starRecords(sorted), starRecords(indexed));
+    try (Stream<Path> files = Files.list(dir)) {
+      assertTrue(files.noneMatch(f -> f.getFileName().toString().endsWith("-sorted")));
+    }
+
+    // multiple extension files
+    Path multifile = dir.resolve("multifile");
+    Files.createDirectory(multifile);
+    for (File f : FileUtils.getClasspathFile("multifile-psv").listFiles()) {
+      if (f.getName().endsWith(".txt") || f.getName().equals(Archive.META_FN)) {
+        Files.copy(f.toPath(), multifile.resolve(f.getName()));
+      }
+    }
+    indexed = DwcFiles.fromLocation(multifile);
+    indexed.setIndexExtensions(true);
+    assertEquals(starRecords(DwcFiles.fromLocation(FileUtils.getClasspathFile("multifile-psv").toPath())),
+        starRecords(indexed));
+
+    // a quoted extension is sorted with the core, the other extension is still indexed
+    Path mixed = dir.resolve("mixed");
+    Files.createDirectory(mixed);
+    copyArchiveDwc(mixed);
+    Path meta = mixed.resolve(Archive.META_FN);
+    String xml = Files.readString(meta);
+    String unquoted = "fieldsEnclosedBy=''";
+    int media = xml.lastIndexOf(unquoted);
+    Files.writeString(meta,
+        xml.substring(0, media) + "fieldsEnclosedBy='\"'" + xml.substring(media + unquoted.length()));
+    indexed = DwcFiles.fromLocation(mixed);
+    indexed.setIndexExtensions(true);
+    assertEquals(starRecords(sorted), starRecords(indexed));
+    assertTrue(Files.exists(mixed.resolve("DarwinCore.txt-sorted")));
+    assertTrue(Files.exists(mixed.resolve("media.txt-sorted")));
+    assertFalse(Files.exists(mixed.resolve("VernacularName.txt-sorted")));
+  }
+
+  /**
+   * Check star records are found by their core id with the persisted id indexes.
+   */
+  @Test
+  public void testGet(@TempDir Path dir) throws Exception {
+    copyArchiveDwc(dir);
+    Archive arch = DwcFiles.fromLocation(dir);
+    Map<String, String> expected =
+        starRecords(DwcFiles.fromLocation(FileUtils.getClasspathFile("archive-dwc").toPath()));
+
+    for (Map.Entry<String, String> star : expected.entrySet()) {
+      assertEquals(star.getValue(), describe(arch.get(star.getKey())));
+    }
+    assertNull(arch.get("unknown"));
+    assertTrue(Files.exists(dir.resolve("DarwinCore.txt-index")));
+    assertTrue(Files.exists(dir.resolve("VernacularName.txt-index")));
+    assertFalse(Files.exists(dir.resolve("DarwinCore.txt-sorted")));
+
+    // the persisted indexes are reused
+    assertFalse(DwcFiles.fromLocation(dir).getCore().buildIdIndex());
+  }
+
+  /**
+   * Check lookups by id survive interrupts and see changes of the data files.
+   */
+  @Test
+  public void testGetAfterInterruptAndChange(@TempDir Path dir) throws Exception {
+    copyArchiveDwc(dir);
+    Archive arch = DwcFiles.fromLocation(dir);
+    String name = arch.get("1559060").core().value(DwcTerm.scientificName);
+
+    // an interrupt fails the lookup of the interrupted thread only
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(IOException.class, () -> arch.get("1559060"));
+    } finally {
+      Thread.interrupted();
+    }
+    assertEquals(name, arch.get("1559060").core().value(DwcTerm.scientificName));
+
+    Files.writeString(dir.resolve("DarwinCore.txt"), "\n999999\t\tAbies alba", StandardOpenOption.APPEND);
+    assertEquals("Abies alba", arch.get("999999").core().value(DwcTerm.scientificName));
+
+    arch.closeIdLookups();
+    assertEquals(name, arch.get("1559060").core().value(DwcTerm.scientificName));
+  }
+
+  /**
+   * Check copies of an archive are sorted into a shared cache, and nothing is written next to their data files.
+   */
+  @Test
+  public void testSortedFileCache(@TempDir Path dir) throws Exception {
+    Path first = dir.resolve("first");
+    Path second = dir.resolve("second");
+    for (Path copy : new Path[] {first, second}) {
+      Files.createDirectory(copy);
+      copyArchiveDwc(copy);
+    }
+    SortedFileCache cache = new SortedFileCache(dir.resolve("cache").toFile(), Long.MAX_VALUE);
+    Map<String, String> expected =
+        starRecords(DwcFiles.fromLocation(FileUtils.getClasspathFile("archive-dwc").toPath()));
+
+    Archive arch = DwcFiles.fromLocation(first);
+    arch.setSortedFileCache(cache);
+    assertEquals(expected, starRecords(arch));
+    File[] cached = cache.getDirectory().listFiles((d, name) -> name.endsWith("-sorted"));
+    assertEquals(3, cached.length);
+
+    // the second copy reuses the sorted files of the first
+    arch = DwcFiles.fromLocation(second);
+    arch.setSortedFileCache(cache);
+    assertEquals(expected, starRecords(arch));
+    assertEquals(3, cache.getDirectory().listFiles((d, name) -> name.endsWith("-sorted")).length);
+
+    for (Path copy : new Path[] {first, second}) {
+      try (Stream<Path> files = Files.list(copy)) {
+        assertEquals(5, files.count());
+      }
+    }
+  }
+
+  /**
+   * Check copies of an archive sorted concurrently into a shared cache wait for each other instead of failing.
+   */
+  @Test
+  public void testSortedFileCacheConcurrently(@TempDir Path dir) throws Exception {
+    SortedFileCache cache = new SortedFileCache(dir.resolve("cache").toFile(), Long.MAX_VALUE);
+    Map<String, String> expected =
+        starRecords(DwcFiles.fromLocation(FileUtils.getClasspathFile("archive-dwc").toPath()));
+
+    int copies = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(copies);
+    try {
+      List<Future<Map<String, String>>> results = new ArrayList<>();
+      for (int i = 0; i < copies; i++) {
+        Path copy = dir.resolve("copy" + i);
+        Files.createDirectory(copy);
+        copyArchiveDwc(copy);
+        results.add(executor.submit(() -> {
+          Archive arch = DwcFiles.fromLocation(copy);
+          arch.setSortedFileCache(cache);
+          return starRecords(arch);
+        }));
+      }
+      for (Future<Map<String, String>> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(3, cache.getDirectory().listFiles((d, name) -> name.endsWith("-sorted")).length);
+  }
+
+  /**
+   * Copies the data files and metadata of the archive-dwc test archive into the directory.
+   */
+  private static void copyArchiveDwc(Path dir) throws IOException {
+    for (String fn : new String[] {"meta.xml", "eml.xml", "DarwinCore.txt", "VernacularName.txt", "media.txt"}) {
+      Files.copy(FileUtils.getClasspathFile("archive-dwc/" + fn).toPath(), dir.resolve(fn));
+    }
+  }
+
+  /**
+   * @return the extension records of each core id, as strings
+   */
+  private static Map<String, String> starRecords(Archive arch) throws Exception {
+    Map<String, String> records = new HashMap<>();
+    try (ClosableIterator<StarRecord> it = arch.iterator()) {
+      while (it.hasNext()) {
+        StarRecord rec = it.next();
+        records.put(rec.core().id(), describe(rec));
+      }
+    }
+    return records;
+  }
+
+  private static String describe(StarRecord rec) {
+    return rec.core() + " " + rec.extensions().entrySet().stream()
+        .map(Object::toString).sorted().collect(Collectors.joining(", "));
+  }
+
+  private static int countStarRecords(Archive arch) throws Exception {
+    int count = 0;
+    try (ClosableIterator<StarRecord> it = arch.iterator()) {
+      while (it.hasNext()) {
+        count += 1 + it.next().size();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Check only the requested terms are read from the core and extension files.
+   */
+  @Test
+  public void testProjectedIterator() throws Exception {
+    Archive arch = DwcFiles.fromLocation(FileUtils.getClasspathFile("multifile-psv").toPath());
+
+    int count = 0;
+    try (ClosableIterator<StarRecord> it = arch.iterator(Collections.singleton(DcTerm.identifier), true, true)) {
+      while (it.hasNext()) {
+        StarRecord rec = it.next();
+        count++;
+        assertEquals(String.valueOf(count), rec.core().id());
+        assertNull(rec.core().value(DwcTerm.scientificName));
+        assertNull(rec.core().value(DwcTerm.taxonRank));
+        Record media = rec.extension(GbifTerm.Multimedia).get(0);
+        assertEquals("id" + count, media.value(DcTerm.identifier));
+        assertEquals(Collections.singleton(DcTerm.identifier), media.terms());
+      }
+    }
+    assertEquals(6, count);
+  }
+
   @Test
   public void testConstituents() {
     File dir = FileUtils.getClasspathFile("constituentsdwca");
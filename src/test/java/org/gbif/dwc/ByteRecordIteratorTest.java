@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests related to {@link ByteRecordIterator}.
+ */
+public class ByteRecordIteratorTest {
+
+  private static final ArchiveField ID = new ArchiveField(0, DwcTerm.taxonID);
+
+  private static Map<Term, ArchiveField> fields() {
+    Map<Term, ArchiveField> fields = new HashMap<>();
+    fields.put(DwcTerm.scientificName, new ArchiveField(1, DwcTerm.scientificName));
+    fields.put(DwcTerm.kingdom, new ArchiveField(2, DwcTerm.kingdom));
+    return fields;
+  }
+
+  private static ByteRecordIterator iterator(String data, boolean reuseRecords) throws Exception {
+    return new ByteRecordIterator(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)),
+        StandardCharsets.UTF_8, '\t', 1, ID, fields(), DwcTerm.Taxon, true, true, reuseRecords);
+  }
+
+  @Test
+  public void testLines() throws Exception {
+    try (ByteRecordIterator it = iterator("id\tname\n1\tAbies alba\r\n\n2\tPiceaé abies\n3\t\t&amp;\n4\tLarix", false)) {
+      Record rec = it.next();
+      assertEquals("1", rec.id());
+      assertEquals("Abies alba", rec.value(DwcTerm.scientificName));
+      assertNull(rec.value(DwcTerm.kingdom));
+
+      Record rec2 = it.next();
+      assertEquals("2", rec2.id());
+      assertEquals("Piceaé abies", rec2.value(DwcTerm.scientificName));
+      // records keep their own line
+      assertEquals("Abies alba", rec.value(DwcTerm.scientificName));
+
+      rec = it.next();
+      assertEquals("3", rec.id());
+      assertNull(rec.value(DwcTerm.scientificName));
+      assertEquals("&", rec.value(DwcTerm.kingdom));
+
+      assertTrue(it.hasNext());
+      rec = it.next();
+      assertEquals("4", rec.id());
+      assertEquals("Larix", rec.value(DwcTerm.scientificName));
+      assertFalse(it.hasNext());
+      assertNull(it.next());
+    }
+  }
+
+  @Test
+  public void testLongLinesAndReuse() throws Exception {
+    // lines crossing the read buffer
+    StringBuilder data = new StringBuilder("id\tname\n");
+    StringBuilder longName = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      longName.append("é");
+    }
+    for (int i = 0; i < 20; i++) {
+      data.append(i).append('\t').append(longName).append(i).append('\n');
+    }
+
+    try (ByteRecordIterator it = iterator(data.toString(), true)) {
+      Record first = null;
+      for (int i = 0; i < 20; i++) {
+        Record rec = it.next();
+        if (first == null) {
+          first = rec;
+        }
+        assertSame(first, rec);
+        assertEquals(String.valueOf(i), rec.id());
+        assertEquals(longName.toString() + i, rec.value(DwcTerm.scientificName));
+      }
+      assertFalse(it.hasNext());
+    }
+  }
+
+  @Test
+  public void testMalformedInput() throws Exception {
+    byte[] header = "id\tname\n1\tAbies".getBytes(StandardCharsets.UTF_8);
+    // an invalid UTF-8 sequence, then a valid replacement character
+    byte[] malformed = {(byte) 0xC3, (byte) 0x28};
+    byte[] rest = "\n2\t\uFFFD\n".getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    data.write(header);
+    data.write(malformed);
+    data.write(rest);
+
+    try (ByteRecordIterator it = new ByteRecordIterator(new ByteArrayInputStream(data.toByteArray()),
+        StandardCharsets.UTF_8, '\t', 1, ID, fields(), DwcTerm.Taxon, true, true, false)) {
+      Record rec = it.next();
+      assertEquals("1", rec.id());
+      IllegalStateException e = assertThrows(IllegalStateException.class, () -> rec.value(DwcTerm.scientificName));
+      assertTrue(e.getCause() instanceof CharacterCodingException);
+
+      assertEquals("\uFFFD", it.next().value(DwcTerm.scientificName));
+    }
+  }
+
+  @Test
+  public void testCrlfHeaderLines() throws Exception {
+    byte[] data = "h1\th2\r\nh3\th4\r\n1\tAbies\r\n2\tPicea\r\n".getBytes(StandardCharsets.UTF_8);
+    // "\r\n" ends a single header line
+    try (ByteRecordIterator it = new ByteRecordIterator(new ByteArrayInputStream(data), StandardCharsets.UTF_8, '\t',
+        2, ID, fields(), DwcTerm.Taxon, true, true, false)) {
+      assertEquals("1", it.next().id());
+      assertEquals("2", it.next().id());
+      assertFalse(it.hasNext());
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.utils.file.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares splitting lines and columns with {@link ByteScanner} to scanning bytes one by one and to splitting decoded
+ * lines, as done in {@code StrTokenizerPerformance}.
+ */
+public class ByteScannerPerformance {
+
+  private static final int ROUNDS = 50;
+
+  private static long scalar(byte[] bytes) {
+    long columns = 0;
+    int start = 0;
+    while (start < bytes.length) {
+      int eol = start;
+      while (eol < bytes.length && bytes[eol] != '\n' && bytes[eol] != '\r') {
+        eol++;
+      }
+      for (int i = start; i < eol; i++) {
+        if (bytes[i] == '\t') {
+          columns++;
+        }
+      }
+      columns++;
+      start = eol + 1;
+    }
+    return columns;
+  }
+
+  private static long swar(byte[] bytes) {
+    long tabs = ByteScanner.broadcast((byte) '\t');
+    long columns = 0;
+    int start = 0;
+    while (start < bytes.length) {
+      int eol = ByteScanner.indexOfLineEnd(bytes, start, bytes.length);
+      if (eol < 0) {
+        eol = bytes.length;
+      }
+      int i = ByteScanner.indexOf(bytes, start, eol, (byte) '\t', tabs);
+      while (i >= 0) {
+        columns++;
+        i = ByteScanner.indexOf(bytes, i + 1, eol, (byte) '\t', tabs);
+      }
+      columns++;
+      start = eol + 1;
+    }
+    return columns;
+  }
+
+  private static long decoded(byte[] bytes) throws IOException {
+    long columns = 0;
+    try (BufferedReader br = new BufferedReader(new StringReader(new String(bytes, StandardCharsets.UTF_8)))) {
+      String row = br.readLine();
+      while (row != null) {
+        int i = row.indexOf('\t');
+        while (i >= 0) {
+          columns++;
+          i = row.indexOf('\t', i + 1);
+        }
+        columns++;
+        row = br.readLine();
+      }
+    }
+    return columns;
+  }
+
+  @Test
+  public void testSwarVsScalarPerformance() throws IOException {
+    File source = FileUtils.getClasspathFile("archive-dwc/DarwinCore.txt");
+    byte[] bytes = Files.readAllBytes(source.toPath());
+
+    // keep track of time while splitting
+    long start = System.currentTimeMillis();
+    long columns = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      columns += decoded(bytes);
+    }
+    System.out.println((System.currentTimeMillis() - start) + " milliseconds for decoding and splitting "
+      + columns + " columns.");
+
+    start = System.currentTimeMillis();
+    columns = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      columns += scalar(bytes);
+    }
+    System.out.println((System.currentTimeMillis() - start) + " milliseconds for scalar byte splitting of "
+      + columns + " columns.");
+
+    start = System.currentTimeMillis();
+    columns = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      columns += swar(bytes);
+    }
+    System.out.println((System.currentTimeMillis() - start) + " milliseconds for SWAR byte splitting of "
+      + columns + " columns.");
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests related to {@link ByteScanner}.
+ */
+public class ByteScannerTest {
+
+  private static int scalarIndexOf(byte[] bytes, int from, int to, byte b) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int scalarIndexOfLineEnd(byte[] bytes, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == '\n' || bytes[i] == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Test
+  public void testSameAsScalar() {
+    Random random = new Random(42);
+    // sparse delimiters and line ends between bytes of all values, including multibyte characters
+    byte[] bytes = new byte[500];
+    for (int i = 0; i < bytes.length; i++) {
+      int r = random.nextInt(20);
+      bytes[i] = r == 0 ? (byte) '\t' : r == 1 ? (byte) '\n' : r == 2 ? (byte) '\r' : (byte) random.nextInt(256);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    long tabs = ByteScanner.broadcast((byte) '\t');
+
+    for (int from = 0; from < 40; from++) {
+      for (int to = from; to < bytes.length; to += 7) {
+        assertEquals(scalarIndexOf(bytes, from, to, (byte) '\t'), ByteScanner.indexOf(bytes, from, to, (byte) '\t', tabs));
+        assertEquals(scalarIndexOf(bytes, from, to, (byte) '\t'), ByteScanner.indexOf(buffer, from, to, (byte) '\t', tabs));
+        assertEquals(scalarIndexOfLineEnd(bytes, from, to), ByteScanner.indexOfLineEnd(bytes, from, to));
+        assertEquals(scalarIndexOfLineEnd(bytes, from, to), ByteScanner.indexOfLineEnd(buffer, from, to));
+      }
+    }
+
+    // bytes with the high bit set or next to the searched value
+    byte[] edge = {(byte) 0x89, 0x08, 0x0A, (byte) 0x80, 0x09, 0x00, (byte) 0xFF, 0x0D, 0x09, 0x0B, 0x0C};
+    for (int from = 0; from < edge.length; from++) {
+      assertEquals(scalarIndexOf(edge, from, edge.length, (byte) '\t'),
+          ByteScanner.indexOf(edge, from, edge.length, (byte) '\t', tabs));
+      assertEquals(scalarIndexOfLineEnd(edge, from, edge.length), ByteScanner.indexOfLineEnd(edge, from, edge.length));
+    }
+  }
+}
@@ -28,7 +28,6 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -40,13 +39,6 @@ import static org.junit.jupiter.api.Assertions.fail;
  */
 public class DwcFilesTest {
 
-  @Test
-  public void testNormalizeIfRequired() throws Exception {
-    ArchiveFile testArchiveFile = new ArchiveFile();
-    testArchiveFile.setFieldsEnclosedBy(null);
-    assertNull(testArchiveFile.normalizeIfRequired());
-  }
-
   @Test
   public void testDwcRecordIterator() throws IOException {
     Archive arch = DwcFiles.fromLocation(FileUtils.getClasspathFile("archive-dwc").toPath());
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExternalSorterTest {
+
+  @TempDir
+  public Path dir;
+
+  @Test
+  public void testKey() {
+    assertEquals("b", ExternalSorter.key("a\tb\tc", 1, '\t', null));
+    assertEquals("c", ExternalSorter.key("a\tb\tc", 2, '\t', null));
+    assertEquals("", ExternalSorter.key("a\tb", 3, '\t', null));
+    assertEquals("", ExternalSorter.key("a\t\tc", 1, '\t', null));
+    assertEquals("b,\"x\"", ExternalSorter.key("\"a,1\",\"b,\"\"x\"\"\",c", 1, ',', '"'));
+    assertEquals("c", ExternalSorter.key("\"a,1\",\"b,\"\"x\"\"\",c", 2, ',', '"'));
+  }
+
+  @Test
+  public void testIsSorted() throws IOException {
+    ExternalSorter sorter = new ExternalSorter();
+    assertTrue(sorter.isSorted(lines("id", "1", "", "10", "2", "2"), 0, '\t', null, 1));
+    assertTrue(sorter.isSorted(lines("b", "a", "a"), 0, '\t', null, 1));
+    assertFalse(sorter.isSorted(lines("id", "2", "10"), 0, '\t', null, 1));
+    assertFalse(sorter.isSorted(lines("id", "a\t2", "b\t1"), 1, '\t', null, 1));
+  }
+
+  @Test
+  public void testSortInMemory() throws IOException {
+    assertSorted(new ExternalSorter(), 1_000);
+  }
+
+  @Test
+  public void testSortSpilledRuns() throws IOException {
+    // tiny chunks, merged in several passes
+    assertSorted(new ExternalSorter(3, 2_000, dir.resolve("spill").toFile(), false, false, 4), 2_000);
+    assertEquals(0, dir.resolve("spill").toFile().list().length);
+  }
+
+  @Test
+  public void testSortCompressed() throws IOException {
+    assertSorted(new ExternalSorter(3, 2_000, dir.resolve("spill").toFile(), true, false, 4), 2_000);
+    assertEquals(0, dir.resolve("spill").toFile().list().length);
+  }
+
+  @Test
+  public void testFailedSortLeavesNoRuns() {
+    ExternalSorter sorter = new ExternalSorter(3, 2_000, dir.resolve("spill").toFile(), false, false, 4);
+    // the source fails once several runs are being spilled
+    List<SupplierWithIO<ExternalSorter.LineSource>> failing = Collections.singletonList(
+        () -> new ExternalSorter.LineSource() {
+          private int line;
+
+          @Override
+          public String readLine() throws IOException {
+            if (++line > 5_000) {
+              throw new IOException("Failed to read line " + line);
+            }
+            return line + "\tvalue " + line;
+          }
+
+          @Override
+          public void close() {
+          }
+        });
+
+    assertThrows(IOException.class, () -> sorter.sortLines(failing, dir.resolve("sorted.txt").toFile(),
+        StandardCharsets.UTF_8, 0, '\t', null, 0));
+    assertEquals(0, dir.resolve("spill").toFile().list().length);
+  }
+
+  private static List<SupplierWithIO<ExternalSorter.LineSource>> lines(String... lines) {
+    return Collections.singletonList(() -> new ExternalSorter.LineSource() {
+      private final Iterator<String> iter = Arrays.asList(lines).iterator();
+
+      @Override
+      public String readLine() {
+        return iter.hasNext() ? iter.next() : null;
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+  }
+
+  /**
+   * Sorts two files with a header line by their second column and compares with a stable in memory sort.
+   */
+  private void assertSorted(ExternalSorter sorter, int lines) throws IOException {
+    Random random = new Random(42);
+    List<String> expected = new ArrayList<>();
+    List<File> inputs = new ArrayList<>();
+    for (int f = 0; f < 2; f++) {
+      List<String> content = new ArrayList<>();
+      content.add("line\tid\tvalue");
+      for (int i = 0; i < lines; i++) {
+        String line = f + "-" + i + "\t" + random.nextInt(lines / 4) + "\tvalue " + i;
+        content.add(line);
+        expected.add(line);
+        if (i % 100 == 0) {
+          content.add("");
+        }
+      }
+      Path input = dir.resolve("input" + f + ".txt");
+      Files.write(input, content, StandardCharsets.UTF_8);
+      inputs.add(input.toFile());
+    }
+    expected.sort(Comparator.comparing(l -> l.split("\t")[1]));
+    expected.add(0, "line\tid\tvalue");
+
+    File sorted = dir.resolve("sorted.txt").toFile();
+    sorter.sort(inputs, sorted, StandardCharsets.UTF_8, 1, '\t', null, 1);
+    assertEquals(expected, Files.readAllLines(sorted.toPath(), StandardCharsets.UTF_8));
+    // no runs are left behind
+    assertEquals(Arrays.asList("input0.txt", "input1.txt", "sorted.txt"),
+        Arrays.stream(dir.toFile().list()).filter(n -> !n.equals("spill")).sorted().collect(Collectors.toList()));
+  }
+}
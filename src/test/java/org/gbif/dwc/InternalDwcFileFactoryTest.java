@@ -14,6 +14,7 @@
 package org.gbif.dwc;
 
 import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.StarRecord;
 import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
@@ -23,16 +24,23 @@ import org.gbif.utils.file.FileUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -59,6 +67,124 @@ public class InternalDwcFileFactoryTest {
     assertIdInCompressed(gzip.toPath(), "113775");
   }
 
+  @Test
+  public void testFromCompressedReusesExtraction(@TempDir Path tmp) throws Exception {
+    Path zip = tmp.resolve("archive-tax.zip");
+    Files.copy(FileUtils.getClasspathFile("archive-tax.zip").toPath(), zip);
+
+    Archive arch = InternalDwcFileFactory.fromCompressed(zip, folder.toPath());
+    arch.initialize();
+    File sorted = new File(folder, "DarwinCore.txt-sorted");
+    assertTrue(sorted.exists());
+
+    // the same zip file reuses the extraction and its sorted files
+    arch = InternalDwcFileFactory.fromCompressed(zip, folder.toPath());
+    assertTrue(sorted.exists());
+    assertEquals(1, arch.getExtensions().size());
+
+    // a modified zip file is extracted again
+    Files.setLastModifiedTime(zip, FileTime.fromMillis(Files.getLastModifiedTime(zip).toMillis() - 60_000));
+    arch = InternalDwcFileFactory.fromCompressed(zip, folder.toPath());
+    assertFalse(sorted.exists());
+    assertEquals(1, arch.getExtensions().size());
+  }
+
+  @Test
+  public void testFromCompressedLegacyIptZip(@TempDir Path tmp) throws Exception {
+    // a single root folder with files named with a leading backslash, as written by legacy IPTs
+    Path zip = tmp.resolve("ipt.zip");
+    try (ZipFile source = new ZipFile(FileUtils.getClasspathFile("archive-tax.zip"));
+         ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      for (ZipEntry entry : Collections.list(source.entries())) {
+        if (!entry.isDirectory() && entry.getName().startsWith("archive-tax/")) {
+          out.putNextEntry(new ZipEntry("ipt/\\" + entry.getName().substring("archive-tax/".length())));
+          source.getInputStream(entry).transferTo(out);
+          out.closeEntry();
+        }
+      }
+      out.putNextEntry(new ZipEntry("ipt/.hidden.txt"));
+      out.closeEntry();
+    }
+    assertIdInCompressed(zip, "113775");
+    assertTrue(new File(folder, "meta.xml").exists());
+    assertTrue(new File(folder, "DarwinCore.txt").exists());
+    assertFalse(new File(folder, ".hidden.txt").exists());
+    assertFalse(new File(folder, "ipt").exists());
+  }
+
+  @Test
+  public void testFromCompressedLazy() throws Exception {
+    File zip = FileUtils.getClasspathFile("archive-tax.zip");
+    Archive arch = InternalDwcFileFactory.fromCompressed(zip.toPath(), folder.toPath(), true);
+    arch.validate();
+    assertTrue(new File(folder, "meta.xml").exists());
+    assertTrue(new File(folder, "eml.xml").exists());
+    File core = new File(folder, "DarwinCore.txt");
+    File extension = new File(folder, "VernacularName.txt");
+    assertFalse(core.exists());
+    assertFalse(extension.exists());
+
+    // only the core is extracted when it is read
+    assertEquals(3248, countCoreRecords(arch));
+    assertTrue(core.exists());
+    assertFalse(extension.exists());
+
+    // a complete extraction only adds the missing files
+    long coreModified = core.lastModified();
+    arch = InternalDwcFileFactory.fromCompressed(zip.toPath(), folder.toPath());
+    assertTrue(extension.exists());
+    assertEquals(coreModified, core.lastModified());
+    assertEquals(1, arch.getExtensions().size());
+  }
+
+  @Test
+  public void testArchiveFingerprint() throws IOException {
+    Path zip = FileUtils.getClasspathFile("archive-tax.zip").toPath();
+    Path tarGz = FileUtils.getClasspathFile("archive-tax.tar.gz").toPath();
+    assertEquals(ArchiveFingerprint.of(zip), ArchiveFingerprint.of(zip));
+    assertNotEquals(ArchiveFingerprint.of(zip), ArchiveFingerprint.of(tarGz));
+    assertTrue(ArchiveFingerprint.of(zip).startsWith(Files.size(zip) + ":"));
+  }
+
+  @Test
+  public void testFromZip(@TempDir Path extracted) throws Exception {
+    File zip = FileUtils.getClasspathFile("archive-tax.zip");
+    Archive arch = InternalDwcFileFactory.fromZip(zip.toPath(), folder.toPath());
+    arch.validate();
+    assertEquals(1, arch.getExtensions().size());
+    assertEquals("eml.xml", arch.getMetadataLocation());
+    assertTrue(arch.getMetadata().contains("<eml:eml"));
+
+    // the core is read from the zip file
+    int count = 0;
+    try (ClosableIterator<Record> it = arch.getCore().iterator()) {
+      while (it.hasNext()) {
+        assertNotNull(it.next().id());
+        count++;
+      }
+    }
+    assertEquals(countCoreRecords(InternalDwcFileFactory.fromCompressed(zip.toPath(), extracted)), count);
+    assertFalse(new File(folder, "DarwinCore.txt").exists());
+
+    // star records need sorted data files, which are extracted
+    int starRecords = 0;
+    try (ClosableIterator<StarRecord> it = arch.iterator()) {
+      while (it.hasNext()) {
+        it.next();
+        starRecords++;
+      }
+    }
+    assertEquals(count, starRecords);
+    assertTrue(new File(folder, "DarwinCore.txt-sorted").exists());
+  }
+
+  @Test
+  public void testFromZipNotZipped() {
+    File gzip = FileUtils.getClasspathFile("archive-tax.tar.gz");
+    assertThrows(UnsupportedArchiveException.class,
+        () -> InternalDwcFileFactory.fromZip(gzip.toPath(), folder.toPath()));
+  }
+
   @Test
   public void testNonExistingFileFromCompressed() {
     // test zip with 1 extension file
@@ -74,6 +200,17 @@ public class InternalDwcFileFactoryTest {
     assertThrows(FileNotFoundException.class, () -> InternalDwcFileFactory.fromLocation(none.toPath()));
   }
 
+  private static int countCoreRecords(Archive arch) throws Exception {
+    int count = 0;
+    try (ClosableIterator<Record> it = arch.getCore().iterator()) {
+      while (it.hasNext()) {
+        it.next();
+        count++;
+      }
+    }
+    return count;
+  }
+
   /**
    * Givin a compressed file, make sure we can uncompressed it, read the core and find the provided id.
    */
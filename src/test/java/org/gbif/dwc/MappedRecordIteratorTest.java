@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests related to {@link MappedRecordIterator}.
+ */
+public class MappedRecordIteratorTest {
+
+  @TempDir
+  public File folder;
+
+  @Test
+  public void testSmallWindows() throws Exception {
+    Path data = new File(folder, "data.txt").toPath();
+    Files.write(data, ("id\tname\n1\tAbies alba\r\n\n2\tPiceaé abies\n3\t\t&amp;\n4\tLarix").getBytes(StandardCharsets.UTF_8));
+
+    Map<Term, ArchiveField> fields = new HashMap<>();
+    fields.put(DwcTerm.scientificName, new ArchiveField(1, DwcTerm.scientificName));
+    fields.put(DwcTerm.kingdom, new ArchiveField(2, DwcTerm.kingdom));
+    ArchiveField id = new ArchiveField(0, DwcTerm.taxonID);
+
+    // windows smaller than the file force remapping within lines
+    try (MappedRecordIterator it = new MappedRecordIterator(data, StandardCharsets.UTF_8, '\t', 1, id, fields,
+        DwcTerm.Taxon, true, true, false, 16)) {
+      Record rec = it.next();
+      assertEquals("1", rec.id());
+      assertEquals("Abies alba", rec.value(DwcTerm.scientificName));
+      assertNull(rec.value(DwcTerm.kingdom));
+
+      rec = it.next();
+      assertEquals("2", rec.id());
+      assertEquals("Piceaé abies", rec.value(DwcTerm.scientificName));
+
+      rec = it.next();
+      assertEquals("3", rec.id());
+      assertNull(rec.value(DwcTerm.scientificName));
+      assertEquals("&", rec.value(DwcTerm.kingdom));
+
+      assertTrue(it.hasNext());
+      rec = it.next();
+      assertEquals("4", rec.id());
+      assertEquals("Larix", rec.value(DwcTerm.scientificName));
+      assertFalse(it.hasNext());
+      assertNull(it.next());
+    }
+  }
+
+  @Test
+  public void testCrlfHeaderLines() throws Exception {
+    Path data = new File(folder, "data.txt").toPath();
+    Files.write(data, ("h1\th2\r\nh3\th4\r\n1\tAbies\r\n2\tPicea\r\n").getBytes(StandardCharsets.UTF_8));
+    Map<Term, ArchiveField> fields = new HashMap<>();
+    fields.put(DwcTerm.scientificName, new ArchiveField(1, DwcTerm.scientificName));
+    ArchiveField id = new ArchiveField(0, DwcTerm.taxonID);
+
+    // "\r\n" ends a single header line, also if the window ends between "\r" and "\n"
+    for (int windowSize = 8; windowSize <= 24; windowSize++) {
+      try (MappedRecordIterator it = new MappedRecordIterator(data, StandardCharsets.UTF_8, '\t', 2, id, fields,
+          DwcTerm.Taxon, true, true, false, windowSize)) {
+        assertEquals("1", it.next().id());
+        assertEquals("2", it.next().id());
+        assertFalse(it.hasNext());
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests related to {@link MappedRecordSpliterator}.
+ */
+public class MappedRecordSpliteratorTest {
+
+  @TempDir
+  public File folder;
+
+  @Test
+  public void testSplitOnLineBoundaries() throws Exception {
+    Path data = new File(folder, "data.txt").toPath();
+    StringBuilder sb = new StringBuilder("id\tname\n");
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      sb.append(i).append("\tname").append(i).append('\n');
+      expected.add(String.valueOf(i));
+    }
+    Files.write(data, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+    Map<Term, ArchiveField> fields = new HashMap<>();
+    fields.put(DwcTerm.scientificName, new ArchiveField(1, DwcTerm.scientificName));
+    ArchiveField id = new ArchiveField(0, DwcTerm.taxonID);
+
+    MappedRecordSpliterator spliterator = new MappedRecordSpliterator(data, StandardCharsets.UTF_8, '\t', 1, id,
+        fields, DwcTerm.Taxon, true, true, 16);
+    try {
+      // a split returns the first half, which ends and starts on a line boundary
+      Spliterator<Record> prefix = spliterator.trySplit();
+      assertNotNull(prefix);
+      List<String> ids = new ArrayList<>();
+      prefix.forEachRemaining(r -> ids.add(r.id()));
+      spliterator.forEachRemaining(r -> ids.add(r.id()));
+      assertEquals(expected, ids);
+      // no more splits once reading has started
+      assertNull(spliterator.trySplit());
+    } finally {
+      spliterator.close();
+    }
+
+    spliterator = new MappedRecordSpliterator(data, StandardCharsets.UTF_8, '\t', 1, id, fields, DwcTerm.Taxon,
+        true, true, 16);
+    try {
+      List<String> names = StreamSupport.stream(spliterator, true)
+          .map(r -> r.id() + "=" + r.value(DwcTerm.scientificName))
+          .collect(Collectors.toList());
+      assertEquals(expected.stream().map(i -> i + "=name" + i).collect(Collectors.toList()), names);
+    } finally {
+      spliterator.close();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SortedFileCacheTest {
+
+  @TempDir
+  public Path dir;
+
+  @Test
+  public void testKey() throws Exception {
+    File data = dir.resolve("data.txt").toFile();
+    Files.writeString(data.toPath(), "1\ta\n2\tb\n");
+    String key = SortedFileCache.key(Collections.singletonList(data), "id=0");
+
+    assertEquals(key, SortedFileCache.key(Collections.singletonList(data), "id=0"));
+    assertNotEquals(key, SortedFileCache.key(Collections.singletonList(data), "id=1"));
+
+    Files.writeString(data.toPath(), "1\ta\n2\tc\n");
+    assertNotEquals(key, SortedFileCache.key(Collections.singletonList(data), "id=0"));
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() throws Exception {
+    SortedFileCache cache = new SortedFileCache(dir.resolve("cache").toFile(), 25);
+    File oldest = cache.sortedFile("a");
+    File used = cache.sortedFile("b");
+    File newest = cache.sortedFile("c");
+    long now = System.currentTimeMillis();
+    for (File f : new File[] {oldest, used, newest}) {
+      Files.writeString(f.toPath(), "0123456789");
+      Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(now - 60_000));
+    }
+    Files.setLastModifiedTime(used.toPath(), FileTime.fromMillis(now - 50_000));
+    Files.setLastModifiedTime(newest.toPath(), FileTime.fromMillis(now - 40_000));
+    cache.touch(used);
+
+    cache.evict(newest);
+    assertFalse(oldest.exists());
+    assertTrue(used.exists());
+    assertTrue(newest.exists());
+
+    // the kept file is not evicted, even if it exceeds the maximum size on its own
+    cache = new SortedFileCache(cache.getDirectory(), 1);
+    cache.evict(newest);
+    assertFalse(used.exists());
+    assertTrue(newest.exists());
+  }
+
+  @Test
+  public void testEvictSkipsLockedFiles() throws Exception {
+    SortedFileCache cache = new SortedFileCache(dir.resolve("cache").toFile(), 1);
+    File locked = cache.sortedFile("a");
+    File newest = cache.sortedFile("b");
+    Files.writeString(locked.toPath(), "0123456789");
+    Files.writeString(newest.toPath(), "0123456789");
+    Files.setLastModifiedTime(locked.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+    // another thread holds the lock of the least recently used file, e.g. while opening it
+    CountDownLatch lockTaken = new CountDownLatch(1);
+    CountDownLatch evicted = new CountDownLatch(1);
+    Thread holder = new Thread(() -> {
+      try {
+        FileLocks.locked(cache.lockFile("a"), () -> {
+          lockTaken.countDown();
+          try {
+            return evicted.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+        });
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    holder.start();
+    assertTrue(lockTaken.await(10, TimeUnit.SECONDS));
+    cache.evict(newest);
+    evicted.countDown();
+    holder.join();
+    assertTrue(locked.exists());
+
+    cache.evict(newest);
+    assertFalse(locked.exists());
+    // a missing file is a cache miss
+    assertFalse(cache.touch(locked));
+    assertTrue(cache.touch(newest));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc.record;
+
+import org.gbif.utils.file.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares {@link CleanUtils#clean(String, boolean, boolean)} with the former regular expression based implementation.
+ */
+public class CleanUtilsPerformance {
+
+  private static final Pattern NULL_REPL = Pattern.compile("^\\s*(null|\\\\N)?\\s*$", Pattern.CASE_INSENSITIVE);
+  private static final int ROUNDS = 20;
+
+  private static String regexClean(String value, boolean nulls, boolean entities) {
+    if (value == null || (nulls && NULL_REPL.matcher(value).find())) {
+      return null;
+    }
+    return entities ? StringEscapeUtils.unescapeHtml4(value) : value;
+  }
+
+  private List<String> values(File source) throws IOException {
+    List<String> values = new ArrayList<>();
+    try (BufferedReader br = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8)) {
+      String row = br.readLine();
+      while (row != null) {
+        for (String col : row.split("\t", -1)) {
+          values.add(col);
+        }
+        row = br.readLine();
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testScannerVsRegexPerformance() throws IOException {
+    List<String> values = values(FileUtils.getClasspathFile("archive-dwc/DarwinCore.txt"));
+
+    // keep track of time while cleaning all values
+    long start = System.currentTimeMillis();
+    int nulls = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      for (String v : values) {
+        if (regexClean(v, true, true) == null) {
+          nulls++;
+        }
+      }
+    }
+    System.out.println((System.currentTimeMillis() - start) + " milliseconds for regex based cleaning of "
+      + values.size() * ROUNDS + " values, " + nulls + " nulls.");
+
+    start = System.currentTimeMillis();
+    nulls = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      for (String v : values) {
+        if (CleanUtils.clean(v, true, true) == null) {
+          nulls++;
+        }
+      }
+    }
+    System.out.println((System.currentTimeMillis() - start) + " milliseconds for scanner based cleaning of "
+      + values.size() * ROUNDS + " values, " + nulls + " nulls.");
+  }
+}
@@ -13,10 +13,13 @@
  */
 package org.gbif.dwc.record;
 
+import java.util.regex.Pattern;
+
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 public class CleanUtilsTest {
 
@@ -45,4 +48,26 @@ public class CleanUtilsTest {
     assertEquals("Me &amp ;", CleanUtils.clean("Me &amp ;", true, true));
     assertEquals("Me & amp;", CleanUtils.clean("Me & amp;", true, true));
   }
+
+  @Test
+  public void testCleanReturnsSameInstance() {
+    String x = "Abies alba Mill.";
+    assertSame(x, CleanUtils.clean(x, true, true));
+    x = " Nulle ";
+    assertSame(x, CleanUtils.clean(x, true, true));
+  }
+
+  /**
+   * Compares the null literal scanner with the regular expression it replaced.
+   */
+  @Test
+  public void testNullLiteral() {
+    Pattern nullRepl = Pattern.compile("^\\s*(null|\\\\N)?\\s*$", Pattern.CASE_INSENSITIVE);
+    String[] values = {"", " ", "\t", " \r\n ", "\u000B\f", "null", "NULL", "nULl", " Null  ", "\\N", "\\n", " \\N\t",
+      "N", "n", "\\", "\\M", "nul", "nulll", "nu ll", "n ull", "\\NN", "\\ N", "-", "\u00A0", "\u00A0null", "nuLL.",
+      "Abies", "\\N\\N", "null null", "NUL\u0141"};
+    for (String x : values) {
+      assertEquals(nullRepl.matcher(x).find(), CleanUtils.isNullLiteral(x), "Value [" + x + "]");
+    }
+  }
 }
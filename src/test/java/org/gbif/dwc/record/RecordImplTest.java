@@ -18,14 +18,17 @@ import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 public class RecordImplTest {
 
@@ -49,8 +52,8 @@ public class RecordImplTest {
     List<ArchiveField> fields = new ArrayList<>();
     fields.add(af);
 
-    final RecordImpl r = new RecordImpl(null, fields, null, true, false);
-    final RecordImpl r2 = new RecordImpl(null, fields, null, false, false);
+    final RecordImpl r = new RecordImpl(RecordSchema.of(null, fields), null, true, false);
+    final RecordImpl r2 = new RecordImpl(RecordSchema.of(null, fields), null, false, false);
 
     String val = setRows(null, r, r2);
     assertNull(r.value(t));
@@ -115,7 +118,7 @@ public class RecordImplTest {
     fields.add(new ArchiveField(4, DwcTerm.phylum, null, null));
     fields.add(new ArchiveField(6, DwcTerm.class_, null, null));
     fields.add(new ArchiveField(7, DwcTerm.acceptedNameUsage, null, null));
-    RecordImpl rec = new RecordImpl(id, fields, DwcTerm.Taxon, true, true);
+    RecordImpl rec = new RecordImpl(RecordSchema.of(id, fields), DwcTerm.Taxon, true, true);
 
     String[] row =
       {"5432", "Abies alba Mill.", "Mill.", "Harry", "Monocotyledonae", "Bertram", "Pincodiae", "Picea picaea L."};
@@ -134,13 +137,37 @@ public class RecordImplTest {
     assertEquals(DwcTerm.Taxon, rec.rowType());
   }
 
+  @Test
+  public void testCleanedValuesCached() {
+    ArchiveField id = new ArchiveField(0, DwcTerm.taxonID, null, null);
+    Set<ArchiveField> fields = new HashSet<ArchiveField>();
+    fields.add(new ArchiveField(1, DwcTerm.scientificName, null, null));
+    RecordImpl rec = new RecordImpl(RecordSchema.of(id, fields), DwcTerm.Taxon, true, true);
+
+    rec.setRow(new String[] {"5432", "Abies &amp; Picea"});
+    String name = rec.value(DwcTerm.scientificName);
+    assertEquals("Abies & Picea", name);
+    assertSame(name, rec.value(DwcTerm.scientificName));
+    assertSame(name, rec.column(1));
+
+    // a new row clears the cached values
+    rec.setRow(new String[] {"5433", "NULL"});
+    assertEquals("5433", rec.id());
+    assertNull(rec.value(DwcTerm.scientificName));
+    assertNull(rec.column(1));
+
+    rec.setRow(new String[] {"5434"});
+    assertEquals("5434", rec.id());
+    assertNull(rec.value(DwcTerm.scientificName));
+  }
+
   @Test
   public void testDefaultValue() {
     final String DATASET = "ITIS";
     ArchiveField id = new ArchiveField(0, DwcTerm.taxonID, null, null);
     Set<ArchiveField> fields = new HashSet<ArchiveField>();
     fields.add(new ArchiveField(1, DwcTerm.datasetName, DATASET, null));
-    RecordImpl rec = new RecordImpl(id, fields, DwcTerm.Taxon, true, true);
+    RecordImpl rec = new RecordImpl(RecordSchema.of(id, fields), DwcTerm.Taxon, true, true);
 
     String[] row = {"5432", "IPNI"};
     rec.setRow(row);
@@ -154,4 +181,23 @@ public class RecordImplTest {
     rec.setRow(row);
     assertEquals(DATASET, rec.value(DwcTerm.datasetName));
   }
+
+  @Test
+  public void testFieldsMap() {
+    ArchiveField id = new ArchiveField(0, DwcTerm.taxonID, null, null);
+    Map<Term, ArchiveField> fields = new HashMap<>();
+    fields.put(DwcTerm.scientificName, new ArchiveField(1, DwcTerm.scientificName, null, null));
+    RecordImpl rec = new RecordImpl(id, fields, DwcTerm.Taxon, true, true);
+
+    String[] row = {"5432", "Abies alba Mill.", "Plantae"};
+    rec.setRow(row);
+    assertEquals(row[0], rec.id());
+    assertEquals(row[1], rec.value(DwcTerm.scientificName));
+    assertNull(rec.value(DwcTerm.kingdom));
+
+    // the fields map is not copied
+    fields.put(DwcTerm.kingdom, new ArchiveField(2, DwcTerm.kingdom, null, null));
+    assertEquals(row[2], rec.value(DwcTerm.kingdom));
+    assertEquals(fields.keySet(), rec.terms());
+  }
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.dwc.record;
+
+import org.gbif.dwc.ArchiveField;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+import org.gbif.dwc.terms.UnknownTerm;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RecordSchemaTest {
+
+  @Test
+  public void testSlots() {
+    Term colour = UnknownTerm.build("http://example.org/terms/colour");
+    Map<Term, ArchiveField> fields = new LinkedHashMap<>();
+    fields.put(DwcTerm.scientificName, new ArchiveField(2, DwcTerm.scientificName));
+    fields.put(DwcTerm.kingdom, new ArchiveField(DwcTerm.kingdom, "Plantae"));
+    fields.put(colour, new ArchiveField(1, colour));
+
+    RecordSchema schema = RecordSchema.of(new ArchiveField(0, DwcTerm.taxonID), fields);
+    assertEquals(0, schema.idIndex());
+    assertEquals(Arrays.asList(DwcTerm.scientificName, DwcTerm.kingdom, colour), Arrays.asList(schema.terms().toArray()));
+
+    int slot = schema.slot(DwcTerm.scientificName);
+    assertEquals(2, schema.index(slot));
+    assertNull(schema.defaultValue(slot));
+
+    slot = schema.slot(DwcTerm.kingdom);
+    assertEquals(-1, schema.index(slot));
+    assertEquals("Plantae", schema.defaultValue(slot));
+
+    // found by identity and by equality
+    assertEquals(schema.slot(colour), schema.slot(UnknownTerm.build("http://example.org/terms/colour")));
+    assertEquals(1, schema.index(schema.slot(colour)));
+
+    assertEquals(-1, schema.slot(DwcTerm.genus));
+    assertEquals(-1, schema.slot(UnknownTerm.build("http://example.org/terms/size")));
+    assertEquals(-1, schema.slot(null));
+    assertEquals(-1, RecordSchema.of(null, fields).idIndex());
+  }
+}